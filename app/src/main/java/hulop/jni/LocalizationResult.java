@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.jni;
+
+import java.util.Arrays;
+
+/*
+ * One localizer update. The Localizer overwrites its instance in place for every update;
+ * copy the fields out if they are needed after the next update.
+ */
+public class LocalizationResult {
+    public double x, y, z, floor;
+    public double lat, lng;
+    public double orientation, velocity;
+    public double stdX, stdY, stdOrientation;
+    public Localizer.LocationStatus locationStatus = Localizer.LocationStatus.UNKNOWN;
+    public long timestamp;
+    // 0 until the first update has been published
+    public long version;
+
+    // arrays passed up from native, kept by reference and copied only by the getters
+    private double[] mDebugInfo, mDebugLatlng;
+
+    public void copyFrom(LocalizationResult other) {
+        x = other.x;
+        y = other.y;
+        z = other.z;
+        floor = other.floor;
+        lat = other.lat;
+        lng = other.lng;
+        orientation = other.orientation;
+        velocity = other.velocity;
+        stdX = other.stdX;
+        stdY = other.stdY;
+        stdOrientation = other.stdOrientation;
+        locationStatus = other.locationStatus;
+        timestamp = other.timestamp;
+        version = other.version;
+        mDebugInfo = other.mDebugInfo;
+        mDebugLatlng = other.mDebugLatlng;
+    }
+
+    void setDebug(double[] debugInfo, double[] debugLatlng) {
+        mDebugInfo = debugInfo;
+        mDebugLatlng = debugLatlng;
+    }
+
+    public boolean hasDebugInfo() {
+        return mDebugInfo != null || mDebugLatlng != null;
+    }
+
+    public double[] getDebugInfo() {
+        return mDebugInfo != null ? Arrays.copyOf(mDebugInfo, mDebugInfo.length) : null;
+    }
+
+    public double[] getDebugLatlng() {
+        return mDebugLatlng != null ? Arrays.copyOf(mDebugLatlng, mDebugLatlng.length) : null;
+    }
+}
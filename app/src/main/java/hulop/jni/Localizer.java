@@ -23,6 +23,7 @@
 package hulop.jni;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -137,12 +138,19 @@ public class Localizer {
     private BiasSettings biasSettings;
 
     public interface Listener {
-        void onUpdated(double x, double y, double z, double floor, double lat, double lng, double orientation, double velocity, double[] debug_info, double[] debug_latlng);
+        // result is reused for the next update once the call returns
+        void onUpdated(LocalizationResult result);
     }
 
     private long nativePtr;
     private double biasValue = 0;
     private Listener mListener;
+    // filled in place by each native callback and handed to the listener on the same thread
+    private final LocalizationResult mResult = new LocalizationResult();
+    private volatile LocationStatus mLocationStatus = LocationStatus.UNKNOWN;
+    // arrays handed to put_beacons, pooled by beacon count
+    private String[][] mUuidPool = new String[0][];
+    private double[][][] mBeaconPool = new double[0][][];
 
     public Localizer(LocalizeMode mode) {
         this.mMode = mode;
@@ -242,6 +250,10 @@ public class Localizer {
     	return biasValue;
     }
 
+    public LocationStatus getLocationStatus() {
+        return mLocationStatus;
+    }
+
     public void setDebug(boolean debug) {
         if (nativePtr != 0) {
             set_debug(nativePtr, debug);
@@ -254,6 +266,28 @@ public class Localizer {
         }
     }
 
+    public void putBeacons(long timestamp, String[] uuids, int[] major, int[] minor, float[] rssi, int count) {
+        if (nativePtr != 0) {
+            if (count >= mBeaconPool.length) {
+                mUuidPool = Arrays.copyOf(mUuidPool, count + 1);
+                mBeaconPool = Arrays.copyOf(mBeaconPool, count + 1);
+            }
+            if (mBeaconPool[count] == null) {
+                mUuidPool[count] = new String[count];
+                mBeaconPool[count] = new double[count][3];
+            }
+            String[] uuidArray = mUuidPool[count];
+            double[][] beaconArray = mBeaconPool[count];
+            for (int i = 0; i < count; i++) {
+                uuidArray[i] = uuids[i];
+                beaconArray[i][0] = major[i];
+                beaconArray[i][1] = minor[i];
+                beaconArray[i][2] = rssi[i];
+            }
+            put_beacons(nativePtr, timestamp, uuidArray, beaconArray);
+        }
+    }
+
     public double estimateBias(JSONObject params, JSONArray beacons) throws Exception {
         if (nativePtr != 0) {
             return estimate_bias(nativePtr, params.getDouble("x"), params.getDouble("y"), params.getDouble("z"), params.getDouble("floor"), getBeaconArray(beacons));
@@ -274,18 +308,38 @@ public class Localizer {
         }
     }
 
+    public void putAccelerations(long[] timestamps, float[] xyz, int count) {
+        if (nativePtr != 0 && mMode.isTracking()) {
+            for (int i = 0; i < count; i++) {
+                put_acceleration(nativePtr, timestamps[i], xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
+            }
+        }
+    }
+
     public void putAttitude(JSONObject obj) throws Exception {
         if (nativePtr != 0 && mMode.isTracking()) {
             put_attitude(nativePtr, obj.getLong("timestamp"), obj.getDouble("x"), obj.getDouble("y"), obj.getDouble("z"));
         }
     }
 
+    public void putAttitude(long timestamp, double x, double y, double z) {
+        if (nativePtr != 0 && mMode.isTracking()) {
+            put_attitude(nativePtr, timestamp, x, y, z);
+        }
+    }
+
     public void putAltimeter(JSONObject obj) throws Exception {
         if (nativePtr != 0 && mMode.isTracking()) {
             put_altimeter(nativePtr, obj.getLong("timestamp"), obj.getDouble("relativeAltitude"), obj.getDouble("pressure"));
         }
     }
 
+    public void putAltimeter(long timestamp, double relativeAltitude, double pressure) {
+        if (nativePtr != 0 && mMode.isTracking()) {
+            put_altimeter(nativePtr, timestamp, relativeAltitude, pressure);
+        }
+    }
+
     public void putHeading(JSONObject obj) throws Exception {
         if (nativePtr != 0) {
             put_heading(nativePtr, obj.getLong("timestamp"),
@@ -294,9 +348,32 @@ public class Localizer {
         }
     }
 
+    public void putHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+        if (nativePtr != 0) {
+            put_heading(nativePtr, timestamp, magneticHeading, trueHeading, headingAccuracy, x, y, z);
+        }
+    }
+
     public void updated(double x, double y, double z, double floor, double lat, double lng, double orientation, double velocity,
                             double stdX, double stdY, double stdOrientation, int locationStatus,
                             double[] debug_info, double[] debug_latlng) {
+        mLocationStatus = LocationStatus.fromInt(locationStatus);
+        LocalizationResult result = mResult;
+        result.x = x;
+        result.y = y;
+        result.z = z;
+        result.floor = floor;
+        result.lat = lat;
+        result.lng = lng;
+        result.orientation = mMode.isTracking() ? orientation : 999;
+        result.velocity = velocity;
+        result.stdX = stdX;
+        result.stdY = stdY;
+        result.stdOrientation = stdOrientation;
+        result.locationStatus = mLocationStatus;
+        result.timestamp = System.currentTimeMillis();
+        result.setDebug(debug_info, debug_latlng);
+        result.version++;
         if (mListener != null) {
 //            long now = System.currentTimeMillis();
 //            if (now > mLastDebugInfo + 1000) {
@@ -304,7 +381,6 @@ public class Localizer {
 //            } else {
 //                debug_info = null;
 //            }
-            LocationStatus locStatus = LocationStatus.fromInt(locationStatus);
 
             /*
             //TODO: use the location accuracy and the orientation accuracy to control the blue dot and arrow.
@@ -328,7 +404,7 @@ public class Localizer {
             }
             */
 
-            mListener.onUpdated(x, y, z, floor, lat, lng, mMode.isTracking() ? orientation : 999, velocity, debug_info, debug_latlng);
+            mListener.onUpdated(result);
         }
     }
 
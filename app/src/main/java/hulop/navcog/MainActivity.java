@@ -195,6 +195,7 @@ public class MainActivity extends AppCompatActivity {
                     public void onBuildingChanged(String building) {
                         Log.d("BrowserListener", "onBuildingChanged," + building);
                         current_building = building;
+                        mServiceManager.onBuildingChanged(building);
                     }
 
                     @Override
@@ -496,6 +497,13 @@ public class MainActivity extends AppCompatActivity {
         super.onStop();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        Log.d("MainActivity", "onTrimMemory");
+        super.onTrimMemory(level);
+        mServiceManager.onTrimMemory(level);
+    }
+
     @Override
     public void onBackPressed() {
         if (!BrowserHelper.instance.goBack()) {
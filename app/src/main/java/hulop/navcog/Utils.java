@@ -31,8 +31,10 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.speech.SpeechRecognizer;
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
@@ -40,7 +42,9 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -49,6 +53,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -94,6 +99,72 @@ public class Utils {
         return Utils.readJSON(is);
     }
 
+    public interface FieldReader {
+        // must consume exactly one value from reader
+        void read(JsonReader reader) throws IOException;
+    }
+
+    /*
+     * Streams the top-level object of a JSON file, handing the values of the given keys to their readers
+     * and skipping everything else without materialising it.
+     */
+    public static void readJSONFields(File file, Map<String, FieldReader> readers) throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(new FileInputStream(file), 65536), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                FieldReader fieldReader = readers.get(reader.nextName());
+                if (fieldReader != null) {
+                    fieldReader.read(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    /*
+     * Reads the next value as a JSONObject, JSONArray, String, Long, Double, Boolean or JSONObject.NULL.
+     */
+    public static Object readJSONValue(JsonReader reader) throws IOException {
+        try {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    JSONObject obj = new JSONObject();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        obj.put(reader.nextName(), readJSONValue(reader));
+                    }
+                    reader.endObject();
+                    return obj;
+                case BEGIN_ARRAY:
+                    JSONArray array = new JSONArray();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        array.put(readJSONValue(reader));
+                    }
+                    reader.endArray();
+                    return array;
+                case NUMBER:
+                    String number = reader.nextString();
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        return Double.parseDouble(number);
+                    }
+                case BOOLEAN:
+                    return reader.nextBoolean();
+                case NULL:
+                    reader.nextNull();
+                    return JSONObject.NULL;
+                default:
+                    return reader.nextString();
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
     public static boolean isNetworkConnected(Context context) {
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo info = cm.getActiveNetworkInfo();
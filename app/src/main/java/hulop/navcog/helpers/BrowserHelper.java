@@ -139,10 +139,12 @@ public class BrowserHelper {
     }
 
     public void invoke(final String script) {
+        final long start = System.nanoTime();
         mActivity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 mWebView.loadUrl(String.format("javascript:%s", script));
+                LatencyHistogram.record(LatencyHistogram.Stage.BRIDGE_DISPATCH, System.nanoTime() - start);
             }
         });
     }
@@ -28,6 +28,9 @@ import android.content.SharedPreferences;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -37,20 +40,24 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
 
+import hulop.jni.LocalizationResult;
 import hulop.jni.Localizer;
 import hulop.navcog.Utils;
+import hulop.navcog.localizers.AnchorTransform;
+import hulop.navcog.localizers.BeaconFrame;
+import hulop.navcog.localizers.BeaconRegion;
 
 import static android.content.Context.VIBRATOR_SERVICE;
 
@@ -58,18 +65,49 @@ public class IndoorLocationManager {
 
     private final Activity mActivity;
     private SharedPreferences mPrefs;
-    private Localizer mLocalizer;
+    private volatile Localizer mLocalizer;
     private final File mFilesDir;
-    private boolean mReady = false;
-    private JSONObject mAnchor;
+    private volatile boolean mReady = false;
+    // replaced as a whole when a model is loaded, read on the result callback
+    private volatile AnchorTransform mAnchor;
+    private List<BeaconRegion> mBeaconRegions = new ArrayList<>();
+    private Localizer.LocalizeMode mMode;
+    private JSONObject mOptions;
+    private Localizer.Listener mListener;
+    // receives debugPlayback results on the playback thread
+    private volatile Localizer.Listener mPlaybackListener;
+    // native calls on the serving localizer, and its disposal, happen only on the ingest worker
+    private volatile boolean mDebug = false;
+    // status of the serving localizer, written on the worker so other threads never touch the localizer
+    private volatile Localizer.LocationStatus mLocationStatus = Localizer.LocationStatus.UNKNOWN;
+    private boolean mHotSwap = true;
+    // bumped for every model load so that a superseded background load is dropped
+    private volatile int mModelGeneration = 0;
+    // last estimate of the serving localizer, used to pick a partition by floor
+    private final LocalizationResult mLastResult = new LocalizationResult();
+    private ModelListener mModelListener;
     private Timer mTimer;
     private static final long TIMER_INTERVAL = 30 * 1000;
-    private JSONArray lastBeaconData;
+    private static final long MODEL_CACHE_BUDGET = 1024L * 1024 * 1024;
+    // shared by the ingest thread and the model loader, guarded by getModelCache()
+    private ModelCache mModelCache;
+    private final BeaconFrame lastBeaconData = new BeaconFrame();
     private long lastBeaconTime;
-    private AtomicInteger mBeaconPool = new AtomicInteger(1), mAccPool = new AtomicInteger(100), mAttPool = new AtomicInteger(10);
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final IngestScheduler mIngest;
+    // model loads run here one at a time so superseded ones can be skipped
+    private final HandlerThread mLoaderThread = new HandlerThread("ModelLoader", Process.THREAD_PRIORITY_BACKGROUND);
+    private final Handler mLoader;
+    // input released before the model is ready, replayed once it is
+    private final WarmupBuffer mWarmup = new WarmupBuffer();
+    private volatile boolean mCapturing = false;
     public static IndoorLocationManager instance;
-    private boolean playingBack = false;
+    private volatile boolean playingBack = false;
+    private volatile LogPlayer mPlayer;
+    // model json currently served, used to load the playback localizer
+    private volatile File mModelPath;
+    // set when the model comes with a partition manifest
+    private volatile ModelPartitions mPartitions;
+    private volatile String mBuilding;
     private JSONObject mBiasLocation = null;
     private int mBiasCount = 0;
     private double mBiasSum = 0;
@@ -81,33 +119,49 @@ public class IndoorLocationManager {
         mActivity = activity;
         mFilesDir = activity.getExternalFilesDir(null);
         mPrefs = PreferenceManager.getDefaultSharedPreferences(activity);
+        mIngest = new IngestScheduler(mSink);
+        mLoaderThread.start();
+        mLoader = new Handler(mLoaderThread.getLooper());
 
         mSensorManager = (SensorManager) mActivity.getSystemService(Context.SENSOR_SERVICE);
     }
 
+    public void setPlaybackListener(Localizer.Listener listener) {
+        mPlaybackListener = listener;
+    }
+
+    public interface ModelListener {
+        void onModelLoaded(List<BeaconRegion> regions);
+    }
+
     public void start(Localizer.LocalizeMode mode, Localizer.Listener listener) {
         Log.d("IndoorLocationManager", "start mode=" + mode);
+        mMode = mode;
+        mListener = listener;
         if (mPrefs.contains("config_path")) {
             try {
                 JSONObject options = Utils.readJSON(new File(mPrefs.getString("config_path", null)));
-                options = updateOptions(options);
-                mLocalizer = new Localizer(options);
+                // per-stream ingest budgets are ours, not the native localizer's
+                mIngest.configure((JSONObject) options.remove("ingest"));
+                mOptions = updateOptions(options);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
-        if (mLocalizer == null) {
-            mLocalizer = new Localizer(mode);
-        }
-        mLocalizer.setListener(listener);
+        mLocalizer = createLocalizer();
+        mCapturing = true;
         mTimer = new Timer("IndoorLocationManager", true);
         mTimer.schedule(new TimerTask() {
             @Override
             public void run() {
                 long time = System.currentTimeMillis() - TIMER_INTERVAL;
                 if (lastBeaconTime > time) {
-                    Log.d("IndoorLocationManager", new Date(lastBeaconTime).toString() + " beacon=" + lastBeaconData.toString());
+                    synchronized (lastBeaconData) {
+                        Log.d("IndoorLocationManager", new Date(lastBeaconTime).toString() + " beacon=" + lastBeaconData.toJSON().toString());
+                    }
                 }
+                Log.d("IndoorLocationManager", "ingest=" + mIngest.getStats());
+                Log.d("IndoorLocationManager", "latency=" + LatencyHistogram.snapshotAll());
             }
         }, TIMER_INTERVAL, TIMER_INTERVAL);
         // TODO TEST
@@ -115,6 +169,41 @@ public class IndoorLocationManager {
 //        debugPlayback();
     }
 
+    private Localizer createLocalizer() {
+        Localizer localizer = newLocalizer();
+        localizer.setListener(listenerFor(localizer));
+        return localizer;
+    }
+
+    private Localizer newLocalizer() {
+        Localizer localizer = null;
+        if (mOptions != null) {
+            try {
+                localizer = new Localizer(mOptions);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if (localizer == null) {
+            localizer = new Localizer(mMode);
+        }
+        localizer.setDebug(mDebug);
+        return localizer;
+    }
+
+    // drops results from a localizer that is loading or has been swapped out
+    private Localizer.Listener listenerFor(final Localizer localizer) {
+        return result -> {
+            if (localizer != mLocalizer) {
+                return;
+            }
+            LatencyHistogram.record(LatencyHistogram.Stage.NATIVE_CALLBACK, System.nanoTime() - mPutStart);
+            mLastResult.copyFrom(result);
+            mLocationStatus = result.locationStatus;
+            mListener.onUpdated(result);
+        };
+    }
+
     private JSONObject updateOptions(JSONObject options) throws JSONException {
         // check available sensors
         boolean pressureAvailable = false;
@@ -193,32 +282,32 @@ public class IndoorLocationManager {
         return updatedOptions;
     }
 
-    public void setAnchor(JSONObject location) {
-        try {
-            location.put("anchor", new JSONObject().put("lat", mAnchor.getDouble("latitude")).put("lng", mAnchor.getDouble("longitude")));
-            location.put("rotate", mAnchor.getDouble("rotate"));
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public double convertOrientation(double localOrientation) throws JSONException {
-        double globalOrientation = localOrientation - mAnchor.getDouble("rotate") / 180 * Math.PI;
-        double x = Math.cos(globalOrientation);
-        double y = Math.sin(globalOrientation);
-        return -Math.atan2(x, y);
+    // null until a model is loaded
+    public AnchorTransform getAnchor() {
+        return mAnchor;
     }
 
     public void stop() {
         mTimer.cancel();
-        mLocalizer.dispose();
+        mModelGeneration++;
+        LogPlayer player = mPlayer;
+        if (player != null) {
+            player.stop();
+        }
+        mCapturing = false;
+        mLoaderThread.quitSafely();
+        // read on the worker so that a swap which is already queued is disposed as well
+        execute(() -> mLocalizer.dispose());
+        mIngest.quit();
         instance = null;
     }
 
     public void overwriteLocationUnknown() {
-    	if(mReady) {
-    		mLocalizer.overwriteLocationUnknown();
-    	}
+        execute(() -> {
+            if (mReady) {
+                mLocalizer.overwriteLocationUnknown();
+            }
+        });
     }
 
     public void setModel(final File model) {
@@ -226,208 +315,454 @@ public class IndoorLocationManager {
             Log.d("IndoorLocationManager", "setModel: no model data");
             return;
         }
-        File tempModel = model;
-        if (model.getPath().endsWith(".zip")) {
-            File tempDir = mActivity.getExternalCacheDir();
-            try {
-                Utils.unzip(model, tempDir);
-                String fileName = model.getName();
-                fileName = fileName.substring(0, fileName.lastIndexOf(".")) + ".json";
-                tempModel = new File(tempDir, fileName);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
+        final int generation = ++mModelGeneration;
+        if (mHotSwap && mReady) {
+            // the current localizer keeps serving until the next one is loaded
+            mLoader.post(() -> loadModel(model, generation));
+            return;
         }
-        final File newModel = tempModel;
+        // from here on the worker captures input into the warm-up buffer while the loader thread works;
+        // the previous localizer is kept until the new one has loaded, in case loading fails
         execute(() -> {
-            long start = System.currentTimeMillis();
             mReady = false;
-            try {
-                mLocalizer.setModel(newModel.getPath(), newModel.getParent());
-                JSONObject localization = Utils.readJSON(newModel);
-                mAnchor = localization.getJSONObject("anchor");
+            mLoader.post(() -> loadModel(model, generation));
+        });
+    }
+
+    /*
+     * Runs on the loader thread. Loads the model into a new localizer,
+     * then swaps it in between two ingest deliveries and replays the input captured meanwhile.
+     */
+    private void loadModel(final File model, final int generation) {
+        if (generation != mModelGeneration) {
+            Log.d("IndoorLocationManager", "loadModel: superseded before loading");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Localizer next = null;
+        try {
+            File newModel = selectPartition(resolveModel(model));
+            next = createLocalizer();
+            next.setModel(newModel.getPath(), newModel.getParent());
+            if (generation != mModelGeneration) {
+                Log.d("IndoorLocationManager", "loadModel: superseded while loading");
+                next.dispose();
+                return;
+            }
+            final ModelHeader header = readModelHeader(newModel);
+            final File modelPath = newModel;
+            final Localizer loaded = next;
+            Log.d("IndoorLocationManager", "loadModel: loaded in " + (System.currentTimeMillis() - start) + "ms");
+            boolean posted = execute(() -> {
+                if (generation != mModelGeneration) {
+                    Log.d("IndoorLocationManager", "loadModel: superseded");
+                    loaded.dispose();
+                    return;
+                }
+                // the debug flag may have changed since the loader created it
+                loaded.setDebug(mDebug);
+                Localizer old = mLocalizer;
+                mLocalizer = loaded;
+                mLocationStatus = loaded.getLocationStatus();
+                mAnchor = header.anchor;
+                mBeaconRegions = header.regions;
+                mModelPath = modelPath;
+                old.dispose();
                 mReady = true;
-            } catch (Exception e) {
-                e.printStackTrace();
+                Log.d("IndoorLocationManager", "loadModel: " + (System.currentTimeMillis() - start) + "ms");
+                replayWarmup();
+                if (mModelListener != null) {
+                    mModelListener.onModelLoaded(mBeaconRegions);
+                }
+                BrowserHelper.instance.invoke("$hulop.util.loading(false)");
+            });
+            if (!posted) {
+                Log.d("IndoorLocationManager", "loadModel: stopped");
+                loaded.dispose();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (next != null) {
+                next.dispose();
             }
-            Log.d("IndoorLocationManager", "setModel: " + (System.currentTimeMillis() - start) + "ms");
+            execute(() -> keepPreviousModel(generation));
             BrowserHelper.instance.invoke("$hulop.util.loading(false)");
-        });
+        }
+    }
+
+    // after a failed cold load, puts the localizer that was serving before back into service
+    private void keepPreviousModel(int generation) {
+        if (generation != mModelGeneration || mReady) {
+            return;
+        }
+        if (mModelPath == null) {
+            Log.d("IndoorLocationManager", "loadModel: failed with no previous model");
+            return;
+        }
+        Log.d("IndoorLocationManager", "loadModel: failed, keeping " + mModelPath);
+        mReady = true;
+        replayWarmup();
+    }
+
+    private void replayWarmup() {
+        if (!mWarmup.isEmpty()) {
+            long replayStart = System.currentTimeMillis();
+            String captured = mWarmup.toString();
+            int replayed = mWarmup.replay(mSink);
+            Log.d("IndoorLocationManager", "loadModel: replayed " + replayed + " records of " + captured + " in " + (System.currentTimeMillis() - replayStart) + "ms");
+        }
+    }
+
+    private File resolveModel(File model) throws Exception {
+        if (model.getPath().endsWith(".zip")) {
+            String fileName = model.getName();
+            fileName = fileName.substring(0, fileName.lastIndexOf(".")) + ".json";
+            return new File(getModelCache().extract(model), fileName);
+        }
+        return model;
+    }
+
+    /*
+     * With a partition manifest next to the model, loads the partition covering the current building instead.
+     */
+    private File selectPartition(File model) throws Exception {
+        ModelPartitions partitions = ModelPartitions.load(model.getParentFile());
+        mPartitions = partitions;
+        if (partitions == null) {
+            return model;
+        }
+        File partition = partitions.find(mBuilding, currentFloor());
+        if (partition == null) {
+            partition = partitions.find(null, Double.NaN);
+        }
+        Log.d("IndoorLocationManager", "selectPartition: building=" + mBuilding + " partition=" + partition.getName());
+        return partition;
+    }
+
+    private double currentFloor() {
+        LocalizationResult r = mLastResult;
+        return r.version > 0 ? r.floor : Double.NaN;
+    }
+
+    /*
+     * Swaps to the partition covering the building if it is not the one being served.
+     */
+    public void onBuildingChanged(String building) {
+        mBuilding = building;
+        ModelPartitions partitions = mPartitions;
+        if (partitions == null || building == null || !mReady) {
+            return;
+        }
+        File partition = partitions.find(building, currentFloor());
+        if (partition != null && !partition.equals(mModelPath)) {
+            Log.d("IndoorLocationManager", "onBuildingChanged: " + building + " -> " + partition.getName());
+            setModel(partition);
+        }
+    }
+
+    private static class ModelHeader {
+        AnchorTransform anchor;
+        List<BeaconRegion> regions;
+    }
+
+    /*
+     * Pulls the anchor and beacon ranges out of the model; the rest of the file has already been parsed natively.
+     */
+    private ModelHeader readModelHeader(File model) throws Exception {
+        final JSONObject[] anchor = new JSONObject[1];
+        final Map<String, int[]> ranges = new LinkedHashMap<>();
+        Map<String, Utils.FieldReader> readers = new HashMap<>();
+        readers.put("anchor", reader -> anchor[0] = (JSONObject) Utils.readJSONValue(reader));
+        for (String key : BeaconRegion.BEACON_KEYS) {
+            readers.put(key, reader -> BeaconRegion.readBeacons(reader, ranges));
+        }
+        Utils.readJSONFields(model, readers);
+        if (anchor[0] == null) {
+            throw new JSONException("no anchor in " + model);
+        }
+        ModelHeader header = new ModelHeader();
+        header.anchor = AnchorTransform.fromJSON(anchor[0]);
+        header.regions = BeaconRegion.toRegions(ranges);
+        return header;
+    }
+
+    private synchronized ModelCache getModelCache() {
+        if (mModelCache == null) {
+            mModelCache = new ModelCache(new File(mActivity.getExternalCacheDir(), "models"), MODEL_CACHE_BUDGET);
+        }
+        return mModelCache;
+    }
+
+    public void setModelListener(ModelListener listener) {
+        mModelListener = listener;
     }
 
+    public List<BeaconRegion> getBeaconRegions() {
+        return mBeaconRegions;
+    }
+
+    public Localizer.LocationStatus getLocationStatus() {
+        return mReady ? mLocationStatus : Localizer.LocationStatus.UNKNOWN;
+    }
+
+    // called for every beacon frame, so only a change is passed on
     public void setDebug(boolean debug) {
-        mLocalizer.setDebug(debug);
-    }
-
-    public void putBeacons(long timestamp, final JSONArray beacons) {
-//        Log.d("IndoorLocationManager", "putBeacons");
-        if (mReady && mBeaconPool.get() > 0) {
-            mBeaconPool.decrementAndGet();
-            execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        long start = System.currentTimeMillis();
-                        mLocalizer.putBeacons(timestamp, beacons);
-                        if (mBiasCount > 0 && mBiasLocation != null) {
-                            mBiasCount--;
-                            double bias = mLocalizer.estimateBias(mBiasLocation, beacons);
-                            LogHelper.instance.appendText("estimatedRssiBias," + bias);
-                            mBiasSum += bias;
-                            if (mBiasCount == 0) {
-                                double average = mBiasSum / 5;
-                                LogHelper.instance.appendText("averageRssiBias," + average);
-                                mPrefs.edit().putString("debug_bias", Double.toString(average)).apply();
-                                Log.d("IndoorLocationManager", "averageRssiBias: " + average);
-                                ((Vibrator) mActivity.getSystemService(VIBRATOR_SERVICE)).vibrate(100);
-                            }
-                        }
-                        Log.d("IndoorLocationManager", "putBeacons: " + (System.currentTimeMillis() - start) + "ms (" + mBeaconPool);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        mBeaconPool.incrementAndGet();
-                    }
-                }
-            });
+        if (debug == mDebug) {
+            return;
         }
+        mDebug = debug;
+        execute(() -> mLocalizer.setDebug(mDebug));
     }
 
-    public void putAccelerations(final JSONArray array) {
-//        if (true) return;
-//        Log.d("IndoorLocationManager", "putAcceleration");
-        if (mReady && mAccPool.get() > 0) {
-            mAccPool.decrementAndGet();
-            execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        long start = System.currentTimeMillis();
-                        mLocalizer.putAccelerations(array);
-                        long elapsed = System.currentTimeMillis() - start;
-                        if (elapsed > 0) {
-//                            Log.d("IndoorLocationManager", "putAccelerations: " + elapsed + "ms " + array.length() + " items (" + mAccPool);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        mAccPool.incrementAndGet();
-                    }
-                }
-            });
+    public void setWarmupWindow(long window) {
+        mWarmup.setMaxAge(window);
+    }
+
+    public void setHotSwap(boolean hotSwap) {
+        mHotSwap = hotSwap;
+    }
+
+    public void putBeacons(long timestamp, BeaconFrame frame) {
+        if (mReady || mCapturing) {
+            mIngest.putBeacons(timestamp, frame);
         }
     }
 
-    public void putAttitude(final JSONObject attitude) {
-//        if (true) return;
-//        Log.d("IndoorLocationManager", "putAttitude");
-        if (mReady && mAttPool.get() > 0) {
-            mAttPool.decrementAndGet();
-            execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        long start = System.currentTimeMillis();
-                        try {
-                            mLocalizer.putAttitude(attitude);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        long elapsed = System.currentTimeMillis() - start;
-                        if (elapsed > 0) {
-                            Log.d("IndoorLocationManager", "putAttitude: " + elapsed + "ms (" + mAttPool);
-                        }
-                    } finally {
-                        mAttPool.incrementAndGet();
-                    }
-                }
-            });
+    public void putAccelerations(long[] timestamps, float[] xyz, int count) {
+        if (mReady || mCapturing) {
+            mIngest.putAccelerations(timestamps, xyz, count);
         }
     }
 
-    public void putAltimeter(final JSONObject altimeter) {
-        if (mReady && mAttPool.get() > 0) {
-            mAttPool.decrementAndGet();
-            execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        long start = System.currentTimeMillis();
-                        try {
-                            mLocalizer.putAltimeter(altimeter);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        long elapsed = System.currentTimeMillis() - start;
-                        if (elapsed > 0) {
-                            Log.d("IndoorLocationManager", "putAltimeter: " + elapsed + "ms (" + mAttPool);
-                        }
-                    } finally {
-                        mAttPool.incrementAndGet();
-                    }
-                }
-            });
+    public void putAttitude(long timestamp, double x, double y, double z) {
+        if (mReady || mCapturing) {
+            mIngest.putAttitude(timestamp, x, y, z);
         }
     }
 
-    public void putHeading(final JSONObject heading) {
-        if (mReady && mAttPool.get() > 0) {
-            mAttPool.decrementAndGet();
-            execute(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        long start = System.currentTimeMillis();
-                        try {
-                            mLocalizer.putHeading(heading);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        long elapsed = System.currentTimeMillis() - start;
-                        if (elapsed > 0) {
-                            Log.d("IndoorLocationManager", "putHeading: " + elapsed + "ms (" + mAttPool);
-                        }
-                    } finally {
-                        mAttPool.incrementAndGet();
-                    }
+    public void putAltimeter(long timestamp, double relativeAltitude, double pressure) {
+        if (mReady || mCapturing) {
+            mIngest.putAltimeter(timestamp, relativeAltitude, pressure);
+        }
+    }
+
+    public void putHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+        if (mReady || mCapturing) {
+            mIngest.putHeading(timestamp, magneticHeading, trueHeading, headingAccuracy, x, y, z);
+        }
+    }
+
+    public void setReorderWindow(long window) {
+        mIngest.setReorderWindow(window);
+    }
+
+    public void setSensorBatching(boolean batching) {
+        mIngest.setSensorBatching(batching);
+    }
+
+    public JSONObject getIngestStats() {
+        return mIngest.getStats();
+    }
+
+    // System.nanoTime() at the start of the current localizer put, ingest thread only
+    private long mPutStart;
+
+    // called on the ingest thread; holds input in the warm-up buffer until the model is ready
+    private final IngestScheduler.Sink mSink = new IngestScheduler.Sink() {
+        @Override
+        public void onBeacons(long timestamp, BeaconFrame beacons) {
+            if (!mReady) {
+                mWarmup.onBeacons(timestamp, beacons);
+                return;
+            }
+            mPutStart = System.nanoTime();
+            mLocalizer.putBeacons(timestamp, beacons.uuid, beacons.major, beacons.minor, beacons.rssi, beacons.count);
+            putDone();
+            if (mBiasCount > 0 && mBiasLocation != null) {
+                mBiasCount--;
+                try {
+                    double bias = mLocalizer.estimateBias(mBiasLocation, beacons.toJSON());
+                    LogHelper.instance.appendText("estimatedRssiBias," + bias);
+                    mBiasSum += bias;
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
-            });
+                if (mBiasCount == 0) {
+                    double average = mBiasSum / 5;
+                    LogHelper.instance.appendText("averageRssiBias," + average);
+                    mPrefs.edit().putString("debug_bias", Double.toString(average)).apply();
+                    Log.d("IndoorLocationManager", "averageRssiBias: " + average);
+                    ((Vibrator) mActivity.getSystemService(VIBRATOR_SERVICE)).vibrate(100);
+                }
+            }
+        }
+
+        @Override
+        public void onAccelerations(long[] timestamps, float[] xyz, int count) {
+            if (!mReady) {
+                mWarmup.onAccelerations(timestamps, xyz, count);
+                return;
+            }
+            mPutStart = System.nanoTime();
+            mLocalizer.putAccelerations(timestamps, xyz, count);
+            putDone();
         }
+
+        @Override
+        public void onAttitude(long timestamp, double x, double y, double z) {
+            if (!mReady) {
+                mWarmup.onAttitude(timestamp, x, y, z);
+                return;
+            }
+            mPutStart = System.nanoTime();
+            mLocalizer.putAttitude(timestamp, x, y, z);
+            putDone();
+        }
+
+        @Override
+        public void onAltimeter(long timestamp, double relativeAltitude, double pressure) {
+            if (!mReady) {
+                mWarmup.onAltimeter(timestamp, relativeAltitude, pressure);
+                return;
+            }
+            mPutStart = System.nanoTime();
+            mLocalizer.putAltimeter(timestamp, relativeAltitude, pressure);
+            putDone();
+        }
+
+        @Override
+        public void onHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+            if (!mReady) {
+                mWarmup.onHeading(timestamp, magneticHeading, trueHeading, headingAccuracy, x, y, z);
+                return;
+            }
+            mPutStart = System.nanoTime();
+            mLocalizer.putHeading(timestamp, magneticHeading, trueHeading, headingAccuracy, x, y, z);
+            putDone();
+        }
+    };
+
+    private void putDone() {
+        LatencyHistogram.record(LatencyHistogram.Stage.JNI_PUT, System.nanoTime() - mPutStart);
     }
 
-    public void onBeaconData(long timestamp, JSONArray array) {
+    public void onBeaconData(long timestamp, BeaconFrame frame) {
         if (playingBack) return;
 //        if (true) return;
-        putBeacons(timestamp, array);
-        lastBeaconData = array;
+        frame.timestamp = timestamp;
+        putBeacons(timestamp, frame);
+        synchronized (lastBeaconData) {
+            lastBeaconData.copyFrom(frame);
+        }
         lastBeaconTime = timestamp;
     }
 
-    public void onSensorData(JSONArray array) {
-        if (playingBack || array.length() == 0) return;
-//        if (true) return;
-        try {
-            JSONObject obj = array.getJSONObject(0);
-            switch (obj.getString("type")) {
-                case "ACCELEROMETER":
-                    putAccelerations(array);
-                    break;
-                case "MOTION":
-                    putAttitude(obj);
+    public void onAccelerations(long[] timestamps, float[] xyz, int count) {
+        if (playingBack || count == 0) return;
+        putAccelerations(timestamps, xyz, count);
+    }
+
+    public void onSamples(SensorHelper.Samples samples) {
+        if (playingBack || samples.count == 0) return;
+        long[] t = samples.timestamps;
+        float[][] v = samples.values;
+        for (int i = 0; i < samples.count; i++) {
+            switch (samples.type) {
+                case MOTION:
+                    putAttitude(t[i], v[0][i], v[1][i], v[2][i]);
                     break;
-                case "ALTIMETER":
-                    putAltimeter(obj);
+                case ALTIMETER:
+                    putAltimeter(t[i], v[0][i], v[1][i]);
                     break;
-                case "HEADING":
-                    putHeading(obj);
+                case HEADING:
+                    putHeading(t[i], v[0][i], v[1][i], v[2][i], v[3][i], v[4][i], v[5][i]);
                     break;
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
         }
     }
 
+    /*
+     * Replays a sensor log into a separate localizer loaded with the current model while live input is ignored.
+     * params: {"path": log file, absolute or relative to the log directory, "speed": 1 for real time, N, or 0 for
+     * as fast as possible} or {"stop": true}
+     */
+    public void debugPlayback(JSONObject params) {
+        Log.d("IndoorLocationManager", "debugPlayback params=" + params);
+        if (params.optBoolean("stop")) {
+            LogPlayer player = mPlayer;
+            if (player != null) {
+                player.stop();
+            }
+            return;
+        }
+        final File modelPath = mModelPath;
+        if (!mReady || modelPath == null || mPlayer != null) {
+            Log.d("IndoorLocationManager", "debugPlayback: no model or already playing");
+            return;
+        }
+        File file = new File(params.optString("path"));
+        if (!file.isAbsolute()) {
+            file = new File(new File(mFilesDir, "log"), file.getPath());
+        }
+        if (!file.exists()) {
+            Log.d("IndoorLocationManager", "debugPlayback: no log " + file);
+            return;
+        }
+        final File log = file;
+        final LogPlayer player = new LogPlayer(log, params.optDouble("speed", 0), mBeaconRegions);
+        mPlayer = player;
+        playingBack = true;
+        new Thread(() -> {
+            final Localizer localizer = newLocalizer();
+            try {
+                localizer.setListener(result -> {
+                    player.onUpdated(result);
+                    Localizer.Listener listener = mPlaybackListener;
+                    if (listener != null) {
+                        listener.onUpdated(result);
+                    }
+                });
+                localizer.setModel(modelPath.getPath(), modelPath.getParent());
+                JSONObject report = player.play(new IngestScheduler.Sink() {
+                    @Override
+                    public void onBeacons(long timestamp, BeaconFrame frame) {
+                        localizer.putBeacons(timestamp, frame.uuid, frame.major, frame.minor, frame.rssi, frame.count);
+                    }
+
+                    @Override
+                    public void onAccelerations(long[] timestamps, float[] xyz, int count) {
+                        localizer.putAccelerations(timestamps, xyz, count);
+                    }
+
+                    @Override
+                    public void onAttitude(long timestamp, double x, double y, double z) {
+                        localizer.putAttitude(timestamp, x, y, z);
+                    }
+
+                    @Override
+                    public void onAltimeter(long timestamp, double relativeAltitude, double pressure) {
+                        localizer.putAltimeter(timestamp, relativeAltitude, pressure);
+                    }
+
+                    @Override
+                    public void onHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+                        localizer.putHeading(timestamp, magneticHeading, trueHeading, headingAccuracy, x, y, z);
+                    }
+                }, new File(log.getParent(), log.getName() + ".trajectory.csv"));
+                Log.d("IndoorLocationManager", "debugPlayback: " + report);
+                if (LogHelper.instance != null) {
+                    LogHelper.instance.appendText("playbackReport," + report);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                localizer.dispose();
+                playingBack = false;
+                mPlayer = null;
+            }
+        }, "LogPlayer").start();
+    }
+
     public void getRssiBias(JSONObject params) {
         Log.d("IndoorLocationManager", "getRssiBias params=" + params);
         mBiasLocation = params;
@@ -435,8 +770,8 @@ public class IndoorLocationManager {
         mBiasSum = 0;
     }
 
-    private void execute(final Runnable command) {
-        executor.execute(command);
-//        new Thread(command).start();
+    // false once the scheduler has quit, in which case the command will never run
+    private boolean execute(final Runnable command) {
+        return mIngest.post(command);
     }
 }
@@ -0,0 +1,716 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.navcog.helpers;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import hulop.navcog.localizers.BeaconFrame;
+
+/*
+ * Feeds sensor and beacon input to the localizer on a single worker thread.
+ * Each stream has its own bounded queue of primitive records, an overflow policy, a capacity budget and a priority.
+ * Items are held for a reorder window and released across all streams in timestamp order;
+ * streams with equal timestamps are served by priority, then round-robin, so a busy stream cannot starve the others.
+ * Input older than what has already been released is late: sensor samples are dropped, beacon frames
+ * are clamped to the release time. With sensor batching, sensor samples routinely arrive behind the other streams,
+ * so late samples are merged instead: released right away, in order within their own stream.
+ * Producers copy into preallocated storage, so nothing is allocated per event once the queues have warmed up.
+ */
+public class IngestScheduler {
+
+    public enum Stream {
+        BEACONS, ACCELERATIONS, ATTITUDE, ALTIMETER, HEADING
+    }
+
+    public enum Policy {
+        // queue grows instead of dropping
+        NEVER_DROP,
+        // samples are appended to one pending batch
+        MERGE,
+        // a new item replaces the queued one
+        LATEST,
+        // the oldest item is dropped when the queue is full
+        DROP_OLDEST
+    }
+
+    public interface Sink {
+        void onBeacons(long timestamp, BeaconFrame frame);
+
+        void onAccelerations(long[] timestamps, float[] xyz, int count);
+
+        void onAttitude(long timestamp, double x, double y, double z);
+
+        void onAltimeter(long timestamp, double relativeAltitude, double pressure);
+
+        void onHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z);
+    }
+
+    // default budgets: frames, samples or records depending on the stream
+    private static final int BEACON_CAPACITY = 4;
+    private static final int ACC_CAPACITY = 1000;
+    private static final int ALTIMETER_CAPACITY = 10;
+    private static final int LATEST_CAPACITY = 16;
+    // the worker sleeps at least this long so items that became due together are released in one go
+    private static final long RELEASE_INTERVAL = 20;
+    public static final long DEFAULT_REORDER_WINDOW = 150;
+
+    private final Object mLock = new Object();
+    private final Sink mSink;
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+    private final Queue[] mQueues = new Queue[Stream.values().length];
+    private final BeaconQueue mBeacons = new BeaconQueue(BEACON_CAPACITY, 3);
+    private final AccQueue mAccelerations = new AccQueue(ACC_CAPACITY, 0);
+    private final RecordQueue mAttitude = new RecordQueue(Stream.ATTITUDE, Policy.LATEST, LATEST_CAPACITY, 1, 3);
+    private final RecordQueue mAltimeter = new RecordQueue(Stream.ALTIMETER, Policy.DROP_OLDEST, ALTIMETER_CAPACITY, 4, 2);
+    private final RecordQueue mHeading = new RecordQueue(Stream.HEADING, Policy.LATEST, LATEST_CAPACITY, 2, 6);
+    private final Thread mThread;
+    private int mNext;
+    private boolean mRunning = true;
+    private long mReorderWindow = DEFAULT_REORDER_WINDOW;
+    private boolean mSensorBatching;
+    // timestamp of the newest item handed to the sink
+    private long mReleased;
+    // head timestamp the worker is sleeping for, Long.MAX_VALUE when idle
+    private long mWaitingFor = Long.MIN_VALUE;
+    private long mWakeups;
+
+    public IngestScheduler(Sink sink) {
+        mSink = sink;
+        for (Queue queue : new Queue[]{mBeacons, mAccelerations, mAttitude, mAltimeter, mHeading}) {
+            mQueues[queue.stream.ordinal()] = queue;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                loop();
+            }
+        }, "IngestScheduler");
+        mThread.start();
+    }
+
+    /*
+     * Runs a control task (model swap, disposal) on the worker ahead of queued data.
+     * Returns false without queueing it once quit() has been called; the caller then owns any cleanup.
+     */
+    public boolean post(Runnable task) {
+        synchronized (mLock) {
+            if (!mRunning) {
+                return false;
+            }
+            mTasks.add(task);
+            mLock.notify();
+            return true;
+        }
+    }
+
+    /*
+     * Stops accepting data; the worker exits after the control tasks already posted.
+     */
+    public void quit() {
+        synchronized (mLock) {
+            mRunning = false;
+            mLock.notify();
+        }
+    }
+
+    /*
+     * How long items wait for earlier input from other streams before they are released.
+     */
+    public void setReorderWindow(long window) {
+        synchronized (mLock) {
+            mReorderWindow = Math.max(window, 0);
+            mLock.notify();
+        }
+    }
+
+    /*
+     * Whether the sensors deliver in batches, in which case sensor samples behind the release time are merged, not dropped.
+     */
+    public void setSensorBatching(boolean batching) {
+        synchronized (mLock) {
+            mSensorBatching = batching;
+        }
+    }
+
+    public void setBudget(Stream stream, int capacity, int priority) {
+        synchronized (mLock) {
+            Queue queue = mQueues[stream.ordinal()];
+            queue.setCapacity(Math.max(capacity, 1));
+            queue.priority = priority;
+        }
+    }
+
+    /*
+     * Applies per-stream settings such as {"altimeter": {"capacity": 20, "priority": 5}}.
+     */
+    public void configure(JSONObject options) {
+        if (options == null) {
+            return;
+        }
+        for (Queue queue : mQueues) {
+            JSONObject budget = options.optJSONObject(queue.stream.name().toLowerCase());
+            if (budget != null) {
+                setBudget(queue.stream, budget.optInt("capacity", queue.capacity), budget.optInt("priority", queue.priority));
+                Log.d("IngestScheduler", queue.stream + " capacity=" + queue.capacity + " priority=" + queue.priority);
+            }
+        }
+    }
+
+    public void putBeacons(long timestamp, BeaconFrame frame) {
+        synchronized (mLock) {
+            if (mRunning) {
+                signal(mBeacons.offer(timestamp, frame, mReleased));
+            }
+        }
+    }
+
+    public void putAccelerations(long[] timestamps, float[] xyz, int count) {
+        synchronized (mLock) {
+            if (mRunning) {
+                if (mAccelerations.offer(timestamps, xyz, count, mReleased, mSensorBatching)) {
+                    signal(mAccelerations.last);
+                }
+            }
+        }
+    }
+
+    public void putAttitude(long timestamp, double x, double y, double z) {
+        synchronized (mLock) {
+            if (mRunning) {
+                int i = mAttitude.offer(timestamp, mReleased, System.currentTimeMillis() - mReorderWindow, mSensorBatching);
+                if (i < 0) {
+                    return;
+                }
+                double[] values = mAttitude.values;
+                values[i] = x;
+                values[i + 1] = y;
+                values[i + 2] = z;
+                signal(timestamp);
+            }
+        }
+    }
+
+    public void putAltimeter(long timestamp, double relativeAltitude, double pressure) {
+        synchronized (mLock) {
+            if (mRunning) {
+                int i = mAltimeter.offer(timestamp, mReleased, System.currentTimeMillis() - mReorderWindow, mSensorBatching);
+                if (i < 0) {
+                    return;
+                }
+                double[] values = mAltimeter.values;
+                values[i] = relativeAltitude;
+                values[i + 1] = pressure;
+                signal(timestamp);
+            }
+        }
+    }
+
+    public void putHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+        synchronized (mLock) {
+            if (mRunning) {
+                int i = mHeading.offer(timestamp, mReleased, System.currentTimeMillis() - mReorderWindow, mSensorBatching);
+                if (i < 0) {
+                    return;
+                }
+                double[] values = mHeading.values;
+                values[i] = magneticHeading;
+                values[i + 1] = trueHeading;
+                values[i + 2] = headingAccuracy;
+                values[i + 3] = x;
+                values[i + 4] = y;
+                values[i + 5] = z;
+                signal(timestamp);
+            }
+        }
+    }
+
+    private void signal(long timestamp) {
+        if (timestamp < mWaitingFor) {
+            mLock.notify();
+        }
+    }
+
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        synchronized (mLock) {
+            try {
+                stats.put("reorderWindow", mReorderWindow);
+                stats.put("sensorBatching", mSensorBatching);
+                stats.put("wakeups", mWakeups);
+                for (Queue queue : mQueues) {
+                    stats.put(queue.stream.name(), new JSONObject()
+                            .put("policy", queue.policy.name())
+                            .put("capacity", queue.capacity)
+                            .put("priority", queue.priority)
+                            .put("accepted", queue.accepted)
+                            .put("dropped", queue.dropped)
+                            .put("late", queue.late)
+                            .put("merged", queue.merged)
+                            .put("delivered", queue.delivered)
+                            .put("depth", queue.depth())
+                            .put("maxDepth", queue.maxDepth)
+                            .put("latency", queue.delivered > 0 ? queue.latencySum / queue.delivered : 0)
+                            .put("maxLatency", queue.latencyMax));
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        return stats;
+    }
+
+    private void loop() {
+        while (true) {
+            Runnable task;
+            Queue queue = null;
+            synchronized (mLock) {
+                while (true) {
+                    if ((task = mTasks.poll()) != null) {
+                        break;
+                    }
+                    if (!mRunning) {
+                        return;
+                    }
+                    long delay = 0;
+                    mWaitingFor = Long.MAX_VALUE;
+                    if ((queue = oldestQueue()) != null) {
+                        long now = System.currentTimeMillis();
+                        long watermark = now - mReorderWindow;
+                        long head = queue.headTimestamp();
+                        if (head <= watermark) {
+                            // release up to the next head of another stream so the streams stay interleaved
+                            mReleased = Math.max(mReleased, queue.take(Math.min(watermark, nextHeadTimestamp(queue))));
+                            queue.delivered(now - head);
+                            LatencyHistogram.record(LatencyHistogram.Stage.QUEUE_WAIT, System.nanoTime() - queue.takenArrival);
+                            break;
+                        }
+                        delay = Math.max(head - watermark, RELEASE_INTERVAL);
+                        mWaitingFor = head;
+                    }
+                    try {
+                        mLock.wait(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    mWaitingFor = Long.MIN_VALUE;
+                    mWakeups++;
+                }
+            }
+            try {
+                if (task != null) {
+                    task.run();
+                } else {
+                    queue.deliver(mSink);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // the non-empty stream with the earliest head; ties go to the higher priority, then round-robin
+    private Queue oldestQueue() {
+        Queue oldest = null;
+        for (int i = 0; i < mQueues.length; i++) {
+            Queue queue = mQueues[(mNext + i) % mQueues.length];
+            if (queue.depth() == 0) {
+                continue;
+            }
+            if (oldest == null || queue.headTimestamp() < oldest.headTimestamp()
+                    || (queue.headTimestamp() == oldest.headTimestamp() && queue.priority > oldest.priority)) {
+                oldest = queue;
+            }
+        }
+        if (oldest != null) {
+            mNext = (oldest.stream.ordinal() + 1) % mQueues.length;
+        }
+        return oldest;
+    }
+
+    private long nextHeadTimestamp(Queue except) {
+        long next = Long.MAX_VALUE;
+        for (Queue queue : mQueues) {
+            if (queue != except && queue.depth() > 0) {
+                next = Math.min(next, queue.headTimestamp());
+            }
+        }
+        return next;
+    }
+
+    /*
+     * take() moves the head item into worker-owned storage while the lock is held;
+     * deliver() hands it to the sink after the lock is released.
+     */
+    private static abstract class Queue {
+        final Stream stream;
+        final Policy policy;
+        int capacity, priority;
+        long accepted, dropped, late, merged, delivered;
+        // milliseconds from event time to delivery
+        long latencySum, latencyMax;
+        int maxDepth;
+        // timestamp of the newest item offered, so a stream never goes back in time
+        long last;
+        // System.nanoTime() at which the item last taken was offered
+        long takenArrival;
+
+        Queue(Stream stream, Policy policy, int capacity, int priority) {
+            this.stream = stream;
+            this.policy = policy;
+            this.capacity = capacity;
+            this.priority = priority;
+        }
+
+        void accepted(int depth) {
+            accepted++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        void delivered(long latency) {
+            delivered++;
+            latencySum += latency;
+            latencyMax = Math.max(latencyMax, latency);
+        }
+
+        void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        abstract int depth();
+
+        abstract long headTimestamp();
+
+        /*
+         * Takes the head item (or, for merged batches, the samples up to limit) and returns the newest timestamp taken.
+         */
+        abstract long take(long limit);
+
+        abstract void deliver(Sink sink);
+    }
+
+    private static class BeaconQueue extends Queue {
+        private BeaconFrame[] mFrames = new BeaconFrame[0];
+        private long[] mArrivals = new long[0];
+        private BeaconFrame mTaken = new BeaconFrame();
+        private int mHead, mSize;
+
+        BeaconQueue(int capacity, int priority) {
+            super(Stream.BEACONS, Policy.NEVER_DROP, capacity, priority);
+            grow(capacity);
+        }
+
+        // capacity only preallocates frames; the queue never drops
+        @Override
+        void setCapacity(int capacity) {
+            super.setCapacity(capacity);
+            if (capacity > mFrames.length) {
+                grow(capacity);
+            }
+        }
+
+        private void grow(int size) {
+            BeaconFrame[] frames = new BeaconFrame[size];
+            long[] arrivals = new long[size];
+            for (int i = 0; i < size; i++) {
+                frames[i] = i < mSize ? mFrames[(mHead + i) % mFrames.length] : new BeaconFrame();
+                arrivals[i] = i < mSize ? mArrivals[(mHead + i) % mFrames.length] : 0;
+            }
+            mFrames = frames;
+            mArrivals = arrivals;
+            mHead = 0;
+        }
+
+        long offer(long timestamp, BeaconFrame frame, long released) {
+            long floor = Math.max(released, last);
+            if (timestamp < floor) {
+                late++;
+                timestamp = floor;
+            }
+            last = timestamp;
+            if (mSize == mFrames.length) {
+                grow(mSize * 2);
+                Log.d("IngestScheduler", "beacon queue grown to " + mFrames.length);
+            }
+            int index = (mHead + mSize++) % mFrames.length;
+            BeaconFrame slot = mFrames[index];
+            mArrivals[index] = System.nanoTime();
+            slot.copyFrom(frame);
+            slot.timestamp = timestamp;
+            accepted(mSize);
+            return timestamp;
+        }
+
+        @Override
+        int depth() {
+            return mSize;
+        }
+
+        @Override
+        long headTimestamp() {
+            return mFrames[mHead].timestamp;
+        }
+
+        @Override
+        long take(long limit) {
+            BeaconFrame frame = mFrames[mHead];
+            takenArrival = mArrivals[mHead];
+            mFrames[mHead] = mTaken;
+            mTaken = frame;
+            mHead = (mHead + 1) % mFrames.length;
+            mSize--;
+            return mTaken.timestamp;
+        }
+
+        @Override
+        void deliver(Sink sink) {
+            sink.onBeacons(mTaken.timestamp, mTaken);
+        }
+    }
+
+    private static class AccQueue extends Queue {
+        private long[] mTimestamps = new long[128], mTakenTimestamps = new long[128];
+        private float[] mXyz = new float[128 * 3], mTakenXyz = new float[128 * 3];
+        private long[] mArrivals = new long[128];
+        private int mCount, mTakenCount;
+
+        AccQueue(int capacity, int priority) {
+            super(Stream.ACCELERATIONS, Policy.MERGE, capacity, priority);
+        }
+
+        boolean offer(long[] timestamps, float[] xyz, int count, long released, boolean merge) {
+            long floor = merge ? last : Math.max(released, last);
+            int skip = 0;
+            while (skip < count && timestamps[skip] < floor) {
+                skip++;
+            }
+            late += skip;
+            count -= skip;
+            if (count == 0) {
+                return false;
+            }
+            for (int i = skip; i < skip + count && timestamps[i] < released; i++) {
+                merged++;
+            }
+            if (count > capacity) {
+                dropped += count - capacity;
+                skip += count - capacity;
+                count = capacity;
+            }
+            int overflow = mCount + count - capacity;
+            if (overflow > 0) {
+                // keep the newest samples of the merged batch
+                System.arraycopy(mTimestamps, overflow, mTimestamps, 0, mCount - overflow);
+                System.arraycopy(mXyz, overflow * 3, mXyz, 0, (mCount - overflow) * 3);
+                System.arraycopy(mArrivals, overflow, mArrivals, 0, mCount - overflow);
+                mCount -= overflow;
+                dropped += overflow;
+            }
+            if (mCount + count > mTimestamps.length) {
+                int size = Math.min(capacity, Math.max(mCount + count, mTimestamps.length * 2));
+                mTimestamps = Arrays.copyOf(mTimestamps, size);
+                mXyz = Arrays.copyOf(mXyz, size * 3);
+            }
+            if (mArrivals.length < mTimestamps.length) {
+                mArrivals = Arrays.copyOf(mArrivals, mTimestamps.length);
+            }
+            System.arraycopy(timestamps, skip, mTimestamps, mCount, count);
+            System.arraycopy(xyz, skip * 3, mXyz, mCount * 3, count * 3);
+            Arrays.fill(mArrivals, mCount, mCount + count, System.nanoTime());
+            mCount += count;
+            last = mTimestamps[mCount - 1];
+            accepted++;
+            maxDepth = Math.max(maxDepth, mCount);
+            return true;
+        }
+
+        @Override
+        int depth() {
+            return mCount;
+        }
+
+        @Override
+        long headTimestamp() {
+            return mTimestamps[0];
+        }
+
+        @Override
+        long take(long limit) {
+            int n = 1;
+            while (n < mCount && mTimestamps[n] <= limit) {
+                n++;
+            }
+            takenArrival = mArrivals[0];
+            if (n == mCount) {
+                long[] timestamps = mTakenTimestamps;
+                float[] xyz = mTakenXyz;
+                mTakenTimestamps = mTimestamps;
+                mTakenXyz = mXyz;
+                mTimestamps = timestamps;
+                mXyz = xyz;
+            } else {
+                if (mTakenTimestamps.length < n) {
+                    mTakenTimestamps = new long[mTimestamps.length];
+                    mTakenXyz = new float[mXyz.length];
+                }
+                System.arraycopy(mTimestamps, 0, mTakenTimestamps, 0, n);
+                System.arraycopy(mXyz, 0, mTakenXyz, 0, n * 3);
+                System.arraycopy(mTimestamps, n, mTimestamps, 0, mCount - n);
+                System.arraycopy(mXyz, n * 3, mXyz, 0, (mCount - n) * 3);
+                System.arraycopy(mArrivals, n, mArrivals, 0, mCount - n);
+            }
+            mTakenCount = n;
+            mCount -= n;
+            return mTakenTimestamps[n - 1];
+        }
+
+        @Override
+        void deliver(Sink sink) {
+            sink.onAccelerations(mTakenTimestamps, mTakenXyz, mTakenCount);
+        }
+    }
+
+    /*
+     * Ring of fixed-width records: a timestamp plus width doubles.
+     */
+    private static class RecordQueue extends Queue {
+        private final int mWidth;
+        private long[] mTimestamps, mArrivals;
+        double[] values;
+        private final double[] mTaken;
+        private long mTakenTimestamp;
+        private int mHead, mSize;
+
+        RecordQueue(Stream stream, Policy policy, int capacity, int priority, int width) {
+            super(stream, policy, capacity, priority);
+            mWidth = width;
+            mTimestamps = new long[capacity];
+            mArrivals = new long[capacity];
+            values = new double[capacity * width];
+            mTaken = new double[width];
+        }
+
+        // keeps the newest records that fit
+        @Override
+        void setCapacity(int capacity) {
+            if (capacity == this.capacity) {
+                return;
+            }
+            long[] timestamps = new long[capacity];
+            long[] arrivals = new long[capacity];
+            double[] newValues = new double[capacity * mWidth];
+            int skip = Math.max(mSize - capacity, 0);
+            for (int i = skip; i < mSize; i++) {
+                int from = (mHead + i) % this.capacity;
+                timestamps[i - skip] = mTimestamps[from];
+                arrivals[i - skip] = mArrivals[from];
+                System.arraycopy(values, from * mWidth, newValues, (i - skip) * mWidth, mWidth);
+            }
+            dropped += skip;
+            mSize -= skip;
+            mHead = 0;
+            mTimestamps = timestamps;
+            mArrivals = arrivals;
+            values = newValues;
+            super.setCapacity(capacity);
+        }
+
+        /*
+         * Reserves a record and returns the offset of its values in the values array, or -1 if it is late.
+         * With merge, only records older than the last one of this stream are late.
+         * With LATEST, records already past the watermark are superseded by the new one;
+         * records still inside the reorder window are kept.
+         */
+        int offer(long timestamp, long released, long watermark, boolean merge) {
+            if (timestamp < (merge ? last : Math.max(released, last))) {
+                late++;
+                return -1;
+            }
+            if (timestamp < released) {
+                merged++;
+            }
+            last = timestamp;
+            if (policy == Policy.LATEST) {
+                while (mSize > 0 && mTimestamps[mHead] <= watermark) {
+                    mHead = (mHead + 1) % capacity;
+                    mSize--;
+                    dropped++;
+                }
+            }
+            if (mSize == capacity) {
+                mHead = (mHead + 1) % capacity;
+                mSize--;
+                dropped++;
+            }
+            int index = (mHead + mSize++) % capacity;
+            mTimestamps[index] = timestamp;
+            mArrivals[index] = System.nanoTime();
+            accepted(mSize);
+            return index * mWidth;
+        }
+
+        @Override
+        int depth() {
+            return mSize;
+        }
+
+        @Override
+        long headTimestamp() {
+            return mTimestamps[mHead];
+        }
+
+        @Override
+        long take(long limit) {
+            mTakenTimestamp = mTimestamps[mHead];
+            takenArrival = mArrivals[mHead];
+            System.arraycopy(values, mHead * mWidth, mTaken, 0, mWidth);
+            mHead = (mHead + 1) % capacity;
+            mSize--;
+            return mTakenTimestamp;
+        }
+
+        @Override
+        void deliver(Sink sink) {
+            double[] v = mTaken;
+            switch (stream) {
+                case ATTITUDE:
+                    sink.onAttitude(mTakenTimestamp, v[0], v[1], v[2]);
+                    break;
+                case ALTIMETER:
+                    sink.onAltimeter(mTakenTimestamp, v[0], v[1]);
+                    break;
+                case HEADING:
+                    sink.onHeading(mTakenTimestamp, v[0], v[1], v[2], v[3], v[4], v[5]);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.navcog.helpers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free latency histogram over System.nanoTime() deltas with log-linear buckets:
+ * each power of two is split into 8 linear buckets, so a reported percentile is within 12.5% of the true value.
+ * Recording is a few atomic adds and never allocates; snapshots are taken without stopping writers.
+ *
+ * One histogram per pipeline stage:
+ * BLE_EMIT         building a beacon frame at the end of a scan window
+ * QUEUE_WAIT       from IngestScheduler.put* to release, including the reorder window
+ * JNI_PUT          a whole Localizer.put* call, including the callbacks it triggers
+ * NATIVE_CALLBACK  from the start of a put to the result callback, i.e. native filter time
+ * BRIDGE_DISPATCH  from BrowserHelper.invoke to the script being handed to the WebView on the UI thread
+ */
+public class LatencyHistogram {
+
+    public enum Stage {
+        BLE_EMIT, QUEUE_WAIT, JNI_PUT, NATIVE_CALLBACK, BRIDGE_DISPATCH
+    }
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_KEYS = {"p50", "p90", "p99", "p999"};
+    private static final LatencyHistogram[] STAGES = new LatencyHistogram[Stage.values().length];
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) {
+            STAGES[i] = new LatencyHistogram();
+        }
+    }
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public static void record(Stage stage, long nanos) {
+        STAGES[stage.ordinal()].record(nanos);
+    }
+
+    /*
+     * All stages as {"JNI_PUT": {"count": n, "mean": us, "p50": us, ..., "max": us}, ...}.
+     */
+    public static JSONObject snapshotAll() {
+        JSONObject snapshot = new JSONObject();
+        try {
+            for (Stage stage : Stage.values()) {
+                snapshot.put(stage.name(), STAGES[stage.ordinal()].snapshot());
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return snapshot;
+    }
+
+    public static void resetAll() {
+        for (LatencyHistogram histogram : STAGES) {
+            histogram.reset();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucket(nanos));
+        mSum.addAndGet(nanos);
+        long max;
+        while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    // values are reported in microseconds
+    public JSONObject snapshot() throws JSONException {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i] = mCounts.get(i);
+        }
+        long max = mMax.get();
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("count", total);
+        snapshot.put("mean", total > 0 ? micros(mSum.get() / total) : 0);
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && p < PERCENTILES.length; i++) {
+            seen += counts[i];
+            while (p < PERCENTILES.length && total > 0 && seen >= Math.ceil(total * PERCENTILES[p] / 100)) {
+                snapshot.put(PERCENTILE_KEYS[p++], micros(Math.min(upperBound(i), max)));
+            }
+        }
+        snapshot.put("max", micros(max));
+        return snapshot;
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0;
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // largest value that falls into the bucket
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+}
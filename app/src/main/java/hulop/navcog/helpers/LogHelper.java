@@ -72,6 +72,8 @@ public class LogHelper {
             ServiceManager.sLoggingNavi = true;
         } else if (text.equals("endNavigation")) {
             ServiceManager.sLoggingNavi = false;
+            // per-stage latency of the walk, for comparing builds and devices
+            doAppend("latency," + LatencyHistogram.snapshotAll());
             stop();
         } else {
             if (text.startsWith("getRssiBias,")) {
@@ -82,6 +84,14 @@ public class LogHelper {
                 } catch (JSONException e) {
                     e.printStackTrace();
                 }
+            } else if (text.startsWith("debugPlayback,")) {
+                try {
+                    if (IndoorLocationManager.instance != null) {
+                        IndoorLocationManager.instance.debugPlayback(new JSONObject(text.substring(text.indexOf(",") + 1)));
+                    }
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
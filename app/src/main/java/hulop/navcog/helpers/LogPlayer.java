@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.navcog.helpers;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+
+import hulop.jni.LocalizationResult;
+import hulop.navcog.localizers.BeaconFrame;
+import hulop.navcog.localizers.BeaconRegion;
+import hulop.navcog.localizers.IBeaconParser;
+
+/*
+ * Replays a sensor log written by ServiceManager into an IngestScheduler.Sink in real time, N times faster,
+ * or as fast as possible (speed 0).
+ * Beacon lines carry no timestamp or uuid, so they take the time of the log line and the uuid of the model region
+ * holding their major; beacons outside every region are skipped. Orientation lines are counted but not fed, as in live operation.
+ * Reports throughput, the time spent in sink calls and in calls that produced an update, and writes the trajectory as CSV.
+ */
+public class LogPlayer {
+    // same as LogHelper; each player parses on its own thread
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    // acceleration lines are fed in batches like SensorHelper delivers them
+    private static final long ACC_BATCH_INTERVAL = 100;
+
+    private final File mLog;
+    private final double mSpeed;
+    private final List<BeaconRegion> mRegions;
+    // uuid id of each region, numbered the same way as for live scans
+    private final IBeaconParser mUuids = new IBeaconParser();
+    private final int[] mUuidIds;
+    private final BeaconFrame mFrame = new BeaconFrame();
+    private long[] mAccTimestamps = new long[128];
+    private float[] mAccXyz = new float[128 * 3];
+    private int mAccCount;
+    private volatile boolean mStopped = false;
+
+    private long mFirstTime = -1, mLastTime, mWallStart;
+    private long mEvents, mSkipped, mMalformed, mUpdates, mCalls, mUpdateCalls;
+    private long mCallNanos, mCallMax, mUpdateNanos, mUpdateMax;
+    private boolean mUpdated;
+    private final LocalizationResult mLast = new LocalizationResult();
+    private Writer mTrajectory;
+
+    public LogPlayer(File log, double speed, List<BeaconRegion> regions) {
+        mLog = log;
+        mSpeed = Math.max(speed, 0);
+        mRegions = regions;
+        mUuidIds = new int[regions.size()];
+        for (int i = 0; i < mUuidIds.length; i++) {
+            mUuidIds[i] = mUuids.intern(regions.get(i).uuid);
+        }
+    }
+
+    public void stop() {
+        mStopped = true;
+    }
+
+    /*
+     * Feeds the whole log to the sink on the calling thread and returns the report.
+     */
+    public JSONObject play(IngestScheduler.Sink sink, File trajectory) throws IOException {
+        mWallStart = System.currentTimeMillis();
+        mTrajectory = new OutputStreamWriter(new FileOutputStream(trajectory), StandardCharsets.UTF_8);
+        mTrajectory.write("timestamp,x,y,z,floor,lat,lng,orientation,velocity,stdX,stdY,status\n");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mLog), StandardCharsets.UTF_8))) {
+            String line;
+            while (!mStopped && (line = reader.readLine()) != null) {
+                try {
+                    playLine(line, sink);
+                } catch (NumberFormatException | ParseException | IndexOutOfBoundsException e) {
+                    mMalformed++;
+                }
+            }
+            flushAccelerations(sink);
+        } catch (InterruptedException e) {
+            mStopped = true;
+        } finally {
+            mTrajectory.close();
+        }
+        JSONObject report = getReport();
+        try {
+            report.put("trajectory", trajectory.getPath());
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return report;
+    }
+
+    // called by the localizer listener while a sink call is in progress
+    public void onUpdated(LocalizationResult result) {
+        mUpdates++;
+        mUpdated = true;
+        mLast.copyFrom(result);
+        try {
+            mTrajectory.write(result.timestamp + "," + result.x + "," + result.y + "," + result.z + "," + result.floor + ","
+                    + result.lat + "," + result.lng + "," + result.orientation + "," + result.velocity + ","
+                    + result.stdX + "," + result.stdY + "," + result.locationStatus + "\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void playLine(String line, IngestScheduler.Sink sink) throws ParseException, InterruptedException {
+        // "yyyy-MM-dd HH:mm:ss.SSS NavCog[0000:0000] type,values..."
+        int start = line.indexOf("] ");
+        if (start < 0) {
+            return;
+        }
+        String[] values = line.substring(start + 2).split(",");
+        switch (values[0]) {
+            case "Acc":
+                long timestamp = Long.parseLong(values[4]);
+                if (mAccCount > 0 && timestamp - mAccTimestamps[0] >= ACC_BATCH_INTERVAL) {
+                    flushAccelerations(sink);
+                }
+                if (mAccCount == mAccTimestamps.length) {
+                    mAccTimestamps = Arrays.copyOf(mAccTimestamps, mAccCount * 2);
+                    mAccXyz = Arrays.copyOf(mAccXyz, mAccCount * 2 * 3);
+                }
+                mAccXyz[mAccCount * 3] = Float.parseFloat(values[1]);
+                mAccXyz[mAccCount * 3 + 1] = Float.parseFloat(values[2]);
+                mAccXyz[mAccCount * 3 + 2] = Float.parseFloat(values[3]);
+                mAccTimestamps[mAccCount++] = timestamp;
+                break;
+            case "Motion":
+                flushAccelerations(sink);
+                timestamp = Long.parseLong(values[4]);
+                pace(timestamp);
+                long call = System.nanoTime();
+                sink.onAttitude(timestamp, Double.parseDouble(values[1]), Double.parseDouble(values[2]), Double.parseDouble(values[3]));
+                called(call, 1);
+                break;
+            case "Beacon":
+                flushAccelerations(sink);
+                timestamp = mDateFormat.parse(line.substring(0, start)).getTime();
+                int count = Integer.parseInt(values[1]);
+                mFrame.clear();
+                mFrame.timestamp = timestamp;
+                for (int i = 0; i < count; i++) {
+                    int major = Integer.parseInt(values[2 + i * 3]);
+                    int minor = Integer.parseInt(values[3 + i * 3]);
+                    int rssi = Integer.parseInt(values[4 + i * 3]);
+                    int uuidId = uuidFor(major);
+                    if (uuidId == IBeaconParser.NO_UUID) {
+                        mSkipped++;
+                        continue;
+                    }
+                    mFrame.add(uuidId, mUuids.getUuid(uuidId), major, minor, rssi, timestamp);
+                }
+                pace(timestamp);
+                call = System.nanoTime();
+                sink.onBeacons(timestamp, mFrame);
+                called(call, 1);
+                break;
+            case "Orientation":
+                mSkipped++;
+                break;
+        }
+    }
+
+    private void flushAccelerations(IngestScheduler.Sink sink) throws InterruptedException {
+        if (mAccCount == 0) {
+            return;
+        }
+        pace(mAccTimestamps[mAccCount - 1]);
+        long call = System.nanoTime();
+        sink.onAccelerations(mAccTimestamps, mAccXyz, mAccCount);
+        called(call, mAccCount);
+        mAccCount = 0;
+    }
+
+    private int uuidFor(int major) {
+        for (int i = 0; i < mUuidIds.length; i++) {
+            if (mRegions.get(i).contains(major)) {
+                return mUuidIds[i];
+            }
+        }
+        return IBeaconParser.NO_UUID;
+    }
+
+    // sleeps until the event is due at the playback speed
+    private void pace(long timestamp) throws InterruptedException {
+        if (mFirstTime < 0) {
+            mFirstTime = timestamp;
+        }
+        mLastTime = Math.max(mLastTime, timestamp);
+        if (mSpeed > 0) {
+            long wait = mWallStart + (long) ((timestamp - mFirstTime) / mSpeed) - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+        mUpdated = false;
+    }
+
+    private void called(long start, int events) {
+        long nanos = System.nanoTime() - start;
+        mEvents += events;
+        mCalls++;
+        mCallNanos += nanos;
+        mCallMax = Math.max(mCallMax, nanos);
+        if (mUpdated) {
+            mUpdateCalls++;
+            mUpdateNanos += nanos;
+            mUpdateMax = Math.max(mUpdateMax, nanos);
+        }
+    }
+
+    public JSONObject getReport() {
+        long wallTime = Math.max(System.currentTimeMillis() - mWallStart, 1);
+        JSONObject report = new JSONObject();
+        try {
+            report.put("log", mLog.getPath())
+                    .put("speed", mSpeed)
+                    .put("completed", !mStopped)
+                    .put("events", mEvents)
+                    .put("skipped", mSkipped)
+                    .put("malformed", mMalformed)
+                    .put("updates", mUpdates)
+                    .put("wallTime", wallTime)
+                    .put("logTime", mFirstTime < 0 ? 0 : mLastTime - mFirstTime)
+                    .put("eventsPerSecond", mEvents * 1000 / wallTime)
+                    // microseconds
+                    .put("callLatency", mCalls > 0 ? mCallNanos / mCalls / 1000 : 0)
+                    .put("maxCallLatency", mCallMax / 1000)
+                    .put("updateLatency", mUpdateCalls > 0 ? mUpdateNanos / mUpdateCalls / 1000 : 0)
+                    .put("maxUpdateLatency", mUpdateMax / 1000);
+            if (mUpdates > 0) {
+                report.put("last", new JSONObject()
+                        .put("timestamp", mLast.timestamp)
+                        .put("x", mLast.x)
+                        .put("y", mLast.y)
+                        .put("z", mLast.z)
+                        .put("floor", mLast.floor)
+                        .put("lat", Double.isNaN(mLast.lat) ? null : mLast.lat)
+                        .put("lng", Double.isNaN(mLast.lng) ? null : mLast.lng)
+                        .put("status", mLast.locationStatus));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return report;
+    }
+}
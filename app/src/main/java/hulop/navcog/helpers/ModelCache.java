@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.navcog.helpers;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import hulop.navcog.Utils;
+
+/*
+ * Extracted model archives keyed by content hash and size.
+ * An archive is unpacked into a temporary directory and renamed into place, so a cache directory
+ * is either complete or absent. Least recently used entries are evicted once the cache exceeds its budget.
+ * Archive hashes are remembered by path, size and modification time so an unchanged archive is not re-read.
+ */
+public class ModelCache {
+    private static final String TMP_PREFIX = "tmp-";
+    private static final String HASH_FILE = "hashes.json";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File mRoot;
+    private final long mBudget;
+
+    public ModelCache(File root, long budget) {
+        mRoot = root;
+        mBudget = budget;
+        mRoot.mkdirs();
+        File[] files = mRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(TMP_PREFIX)) {
+                    delete(file);
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the directory holding the extracted archive, extracting it on a miss.
+     */
+    public synchronized File extract(File archive) throws IOException {
+        long start = System.currentTimeMillis();
+        String key = getHash(archive) + "-" + archive.length();
+        File dir = new File(mRoot, key);
+        if (dir.isDirectory()) {
+            dir.setLastModified(System.currentTimeMillis());
+            Log.d("ModelCache", "hit " + key + " " + (System.currentTimeMillis() - start) + "ms");
+            return dir;
+        }
+        File tmp = new File(mRoot, TMP_PREFIX + key + "-" + System.nanoTime());
+        if (!tmp.mkdirs()) {
+            throw new IOException("cannot create " + tmp);
+        }
+        try {
+            Utils.unzip(archive, tmp);
+            if (!tmp.renameTo(dir) && !dir.isDirectory()) {
+                throw new IOException("cannot rename " + tmp + " to " + dir);
+            }
+        } finally {
+            if (tmp.exists()) {
+                delete(tmp);
+            }
+        }
+        Log.d("ModelCache", "extracted " + key + " " + (System.currentTimeMillis() - start) + "ms");
+        evict(dir);
+        return dir;
+    }
+
+    private void evict(File keep) {
+        File[] files = mRoot.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> dirs = new ArrayList<>();
+        long total = 0;
+        for (File file : files) {
+            if (file.isDirectory() && !file.getName().startsWith(TMP_PREFIX)) {
+                dirs.add(file);
+                total += size(file);
+            }
+        }
+        Collections.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File dir : dirs) {
+            if (total <= mBudget) {
+                break;
+            }
+            if (!dir.equals(keep)) {
+                long size = size(dir);
+                Log.d("ModelCache", "evict " + dir.getName() + " " + size + " bytes");
+                delete(dir);
+                total -= size;
+            }
+        }
+    }
+
+    private synchronized String getHash(File archive) throws IOException {
+        File hashFile = new File(mRoot, HASH_FILE);
+        JSONObject hashes = new JSONObject();
+        if (hashFile.exists()) {
+            try {
+                hashes = Utils.readJSON(hashFile);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        String stamp = archive.length() + ":" + archive.lastModified();
+        JSONObject entry = hashes.optJSONObject(archive.getPath());
+        if (entry != null && stamp.equals(entry.optString("stamp"))) {
+            return entry.optString("hash");
+        }
+        String hash = sha256(archive);
+        try {
+            hashes.put(archive.getPath(), new JSONObject().put("stamp", stamp).put("hash", hash));
+            try (FileOutputStream os = new FileOutputStream(hashFile)) {
+                os.write(hashes.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return hash;
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream is = new FileInputStream(file)) {
+            int count;
+            while ((count = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static long size(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long total = 0;
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                total += size(child);
+            }
+        }
+        return total;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
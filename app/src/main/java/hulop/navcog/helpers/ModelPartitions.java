@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.navcog.helpers;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import hulop.navcog.Utils;
+
+/*
+ * A site model split into building-scoped partitions, described by a partitions.json next to the model:
+ * {"default": "east", "partitions": [{"id": "east", "file": "east.json", "buildings": ["East Hall"], "floors": [-1, 3]}, ...]}
+ * Each partition file is a complete model of its buildings (and floors, if given) plus their neighbours,
+ * so only one partition needs to be resident and a building change is served by swapping to the one covering it.
+ */
+public class ModelPartitions {
+    public static final String MANIFEST = "partitions.json";
+
+    private final File mDir;
+    private final List<Partition> mPartitions = new ArrayList<>();
+    private Partition mDefault;
+
+    private static class Partition {
+        String id;
+        File file;
+        List<String> buildings = new ArrayList<>();
+        double minFloor = Double.NEGATIVE_INFINITY, maxFloor = Double.POSITIVE_INFINITY;
+
+        boolean contains(String building, double floor) {
+            return buildings.contains(building) && (Double.isNaN(floor) || (minFloor <= floor && floor <= maxFloor));
+        }
+    }
+
+    private ModelPartitions(File dir) {
+        mDir = dir;
+    }
+
+    /*
+     * Returns null if the directory has no partition manifest.
+     */
+    public static ModelPartitions load(File dir) throws Exception {
+        File manifest = new File(dir, MANIFEST);
+        if (!manifest.exists()) {
+            return null;
+        }
+        ModelPartitions partitions = new ModelPartitions(dir);
+        JSONObject json = Utils.readJSON(manifest);
+        JSONArray array = json.getJSONArray("partitions");
+        String defaultId = json.optString("default", null);
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject obj = array.getJSONObject(i);
+            Partition partition = new Partition();
+            partition.id = obj.optString("id", obj.getString("file"));
+            partition.file = new File(dir, obj.getString("file"));
+            JSONArray buildings = obj.optJSONArray("buildings");
+            for (int j = 0; buildings != null && j < buildings.length(); j++) {
+                partition.buildings.add(buildings.getString(j));
+            }
+            JSONArray floors = obj.optJSONArray("floors");
+            if (floors != null) {
+                partition.minFloor = floors.getDouble(0);
+                partition.maxFloor = floors.getDouble(floors.length() - 1);
+            }
+            partitions.mPartitions.add(partition);
+            if (partition.id.equals(defaultId) || partitions.mDefault == null) {
+                partitions.mDefault = partition;
+            }
+        }
+        if (partitions.mDefault == null) {
+            throw new JSONException("no partitions in " + manifest);
+        }
+        return partitions;
+    }
+
+    public File getDirectory() {
+        return mDir;
+    }
+
+    /*
+     * The partition covering the building, preferring one that also covers the floor (NaN if unknown);
+     * the default partition if no building is known, null if the building is not in the site.
+     */
+    public File find(String building, double floor) {
+        if (building == null) {
+            return mDefault.file;
+        }
+        Partition match = null;
+        for (Partition partition : mPartitions) {
+            if (partition.contains(building, floor)) {
+                return partition.file;
+            }
+            if (match == null && partition.contains(building, Double.NaN)) {
+                match = partition;
+            }
+        }
+        return match != null ? match.file : null;
+    }
+}
@@ -26,8 +26,10 @@ import android.content.Context;
 import android.hardware.GeomagneticField;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 
@@ -36,10 +38,26 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
 
+/*
+ * Reads the motion sensors and delivers derived samples in primitive batches.
+ * The event listener copies into preallocated buffers: one struct-of-arrays ring per sample type,
+ * drained to the listener at most every FLUSH_INTERVAL ms, or earlier when a ring fills up.
+ * Whatever is still buffered when no further event arrives is drained by a deadline, and by pause() and stop().
+ * JSON is only produced on demand by Samples.toJSON() for logging and the WebView.
+ * With a batch latency the sensors are registered for hardware FIFO batching and events arrive in bursts,
+ * so everything is driven by event timestamps and the accelerometer is looked up by time, not by arrival.
+ */
 public class SensorHelper {
+    public static final long DEFAULT_BATCH_LATENCY = 0;
+    private static final long FLUSH_INTERVAL = 100;
+    private static final int RING_CAPACITY = 64;
+    private static final int ACC_HISTORY = 512;
+    // callbacks closer than this (ns) belong to the same delivery
+    private static final long BURST_GAP = 1000000;
+    private static final int[] SENSOR_TYPES = {Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_MAGNETIC_FIELD, Sensor.TYPE_PRESSURE};
 
     private final Context mContext;
     private final SensorManager mSensorManager;
@@ -48,6 +66,23 @@ public class SensorHelper {
     private final AccAverage mAccAverage = new AccAverage();
     private final GyroscopeAngles mGyroAngles = new GyroscopeAngles();
     private final AccQueue mAccQueue = new AccQueue();
+    private final Samples mMotion = new Samples(Samples.Type.MOTION, RING_CAPACITY);
+    private final Samples mOrientation = new Samples(Samples.Type.ORIENTATION, RING_CAPACITY);
+    private final Samples mAltimeter = new Samples(Samples.Type.ALTIMETER, RING_CAPACITY);
+    private final Samples mHeading = new Samples(Samples.Type.HEADING, RING_CAPACITY);
+    private final Samples[] mSamples = {mMotion, mOrientation, mAltimeter, mHeading};
+    // sensor events are delivered on the main looper, so the deadline flush runs on the same thread
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlushTask = this::flushAll;
+    private boolean mFlushScheduled;
+    private final MotionDetector mMotionDetector = new MotionDetector();
+    private final AccHistory mAccHistory = new AccHistory();
+    private final SensorRate[] mRates = new SensorRate[SENSOR_TYPES.length];
+    // ms, 0 for continuous delivery
+    private long mBatchLatency = DEFAULT_BATCH_LATENCY;
+    private boolean mRegistered;
+    // counters are written on the sensor thread and read elsewhere only for reporting
+    private long mStarted, mLastCallback, mWakeups, mFlushes;
     private SensorListener mListener;
     private float[] accValues, magValues, pressValues;
     private float[] initialPressValues;
@@ -62,7 +97,88 @@ public class SensorHelper {
     }
 
     public interface SensorListener {
-        void onSuccess(JSONArray array);
+        // arrays are reused after the call returns
+        void onAccelerations(long[] timestamps, float[] xyz, int count);
+
+        // a batch of one sample type, reused after the call returns
+        void onSamples(Samples samples);
+    }
+
+    /*
+     * Struct-of-arrays batch of one sample type: timestamps[i] and values[channel][i] for i < count.
+     * Channels are x, y, z for MOTION and ORIENTATION, relativeAltitude and pressure for ALTIMETER,
+     * and magneticHeading, trueHeading, headingAccuracy, x, y, z for HEADING.
+     */
+    public static class Samples {
+        public enum Type {
+            MOTION(3), ORIENTATION(3), ALTIMETER(2), HEADING(6);
+
+            public final int channels;
+
+            Type(int channels) {
+                this.channels = channels;
+            }
+        }
+
+        public final Type type;
+        public final long[] timestamps;
+        public final float[][] values;
+        public int count;
+        private long mLastFlush;
+
+        Samples(Type type, int capacity) {
+            this.type = type;
+            timestamps = new long[capacity];
+            values = new float[type.channels][capacity];
+        }
+
+        // reserves the next slot; the caller fills values[channel][index]
+        int add(long timestamp) {
+            timestamps[count] = timestamp;
+            return count++;
+        }
+
+        boolean shouldFlush(long timestamp) {
+            return count == timestamps.length || timestamp > mLastFlush + FLUSH_INTERVAL;
+        }
+
+        void flushed(long timestamp) {
+            count = 0;
+            mLastFlush = timestamp;
+        }
+
+        public JSONObject toJSON(int i) throws JSONException {
+            JSONObject obj = new JSONObject();
+            obj.put("timestamp", timestamps[i]);
+            obj.put("type", type.name());
+            switch (type) {
+                case ALTIMETER:
+                    obj.put("relativeAltitude", values[0][i]);
+                    obj.put("pressure", values[1][i]);
+                    break;
+                case HEADING:
+                    obj.put("magneticHeading", values[0][i]);
+                    obj.put("trueHeading", values[1][i]);
+                    obj.put("headingAccuracy", values[2][i]);
+                    obj.put("x", values[3][i]);
+                    obj.put("y", values[4][i]);
+                    obj.put("z", values[5][i]);
+                    break;
+                default:
+                    obj.put("x", values[0][i]);
+                    obj.put("y", values[1][i]);
+                    obj.put("z", values[2][i]);
+            }
+            return obj;
+        }
+
+        public JSONArray toJSON() throws JSONException {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < count; i++) {
+                array.put(toJSON(i));
+            }
+            return array;
+        }
     }
 
     public void start(SensorListener listener) {
@@ -71,60 +187,185 @@ public class SensorHelper {
         for (Sensor sensor : mSensorManager.getSensorList(Sensor.TYPE_ALL)) {
             Log.d("SensorHelper", "type=" + sensor.getType() + ", name=" + sensor.getName());
         }
+        mStarted = SystemClock.elapsedRealtimeNanos();
+        mWakeups = mFlushes = 0;
+        Arrays.fill(mRates, null);
+        register();
+    }
+
+    private void register() {
         for (int type : new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE}) {
             List<Sensor> sensors = mSensorManager.getSensorList(type);
             if (sensors.size() > 0) {
-                mSensorManager.registerListener(mySensorEventListener, sensors.get(0), SensorManager.SENSOR_DELAY_FASTEST);
+                register(sensors.get(0), SensorManager.SENSOR_DELAY_FASTEST);
             }
         }
         for (int type : new int[]{Sensor.TYPE_MAGNETIC_FIELD}) {
             List<Sensor> sensors = mSensorManager.getSensorList(type);
             if (sensors.size() > 0) {
-                mSensorManager.registerListener(mySensorEventListener, sensors.get(0), SensorManager.SENSOR_DELAY_FASTEST);
+                register(sensors.get(0), SensorManager.SENSOR_DELAY_FASTEST);
             }
         }
         for (int type: new int[]{Sensor.TYPE_PRESSURE}) {
             List<Sensor> sensors = mSensorManager.getSensorList(type);
             if (sensors.size() > 0) {
-                mSensorManager.registerListener(mySensorEventListener, sensors.get(0), SensorManager.SENSOR_DELAY_UI);
+                register(sensors.get(0), SensorManager.SENSOR_DELAY_UI);
             }
         }
+        mRegistered = true;
 
         //// Sensor.TYPE_GAME_ROTATION_VECTOR : Identical to TYPE_ROTATION_VECTOR except that it doesn't use the geomagnetic field.
         //// Sensor.TYPE_GAME_ROTATION_VECTOR is appropreate for our application because it is not affected by unstable magnetic heading.
         //// Removed the registration of Sensor.TYPE_GAME_ROTATION_VECTOR because reported rotation values are unreliable on some devices.
     }
 
+    private void register(Sensor sensor, int samplingPeriod) {
+        long latency = mBatchLatency * 1000;
+        boolean batching = latency > 0 && sensor.getFifoMaxEventCount() > 0;
+        if (batching) {
+            mSensorManager.registerListener(mySensorEventListener, sensor, samplingPeriod, (int) Math.min(latency, Integer.MAX_VALUE));
+        } else {
+            mSensorManager.registerListener(mySensorEventListener, sensor, samplingPeriod);
+        }
+        for (int i = 0; i < SENSOR_TYPES.length; i++) {
+            if (SENSOR_TYPES[i] == sensor.getType()) {
+                if (mRates[i] == null) {
+                    mRates[i] = new SensorRate(sensor);
+                }
+                mRates[i].batching = batching;
+            }
+        }
+        Log.d("SensorHelper", "register " + sensor.getName() + " batching=" + batching + " fifo=" + sensor.getFifoReservedEventCount() + "/" + sensor.getFifoMaxEventCount());
+    }
+
     public void stop() {
-        Log.d("SensorHelper", "stop");
+        Log.d("SensorHelper", "stop " + getStats());
+        mSensorManager.unregisterListener(mySensorEventListener);
+        mRegistered = false;
+        flushAll();
+    }
+
+    // keeps the listener and filter state so that resume() only re-registers
+    public void pause() {
+        Log.d("SensorHelper", "pause " + getStats());
         mSensorManager.unregisterListener(mySensorEventListener);
+        mRegistered = false;
+        flushAll();
     }
 
-    private JSONObject newResult(String type, float[] values, long timestamp) throws JSONException {
-        JSONObject obj = new JSONObject();
-        obj.put("timestamp", timestamp);
-        obj.put("type", type);
-        obj.put("x", values[0]);
-        obj.put("y", values[1]);
-        obj.put("z", values[2]);
-        return obj;
+    /*
+     * Maximum time in ms the sensor hub may hold events before waking the application processor.
+     * Sensors without a FIFO keep delivering continuously. Takes effect immediately while registered.
+     */
+    public void setBatchLatency(long latency) {
+        latency = Math.max(latency, 0);
+        if (latency == mBatchLatency) {
+            return;
+        }
+        mBatchLatency = latency;
+        if (mRegistered) {
+            mSensorManager.unregisterListener(mySensorEventListener);
+            register();
+        }
     }
 
-    private void postResult(String type, float[] values, long timestamp) {
-//        addScanResult(new SensorResult(type, values, timestamp));
+    // asks the sensor hub to deliver what it has batched now, e.g. when the user looks at the screen
+    public void flush() {
+        if (mRegistered && mBatchLatency > 0) {
+            mSensorManager.flush(mySensorEventListener);
+        }
+    }
+
+    /*
+     * Achieved rate per sensor and how often the application processor was woken for a delivery.
+     */
+    public JSONObject getStats() {
+        JSONObject stats = new JSONObject();
         try {
-            mListener.onSuccess(new JSONArray().put(newResult(type, values, timestamp)));
+            double minutes = (SystemClock.elapsedRealtimeNanos() - mStarted) / 60e9;
+            stats.put("batchLatency", mBatchLatency);
+            stats.put("wakeups", mWakeups);
+            stats.put("wakeupsPerMinute", minutes > 0 ? mWakeups / minutes : 0);
+            stats.put("flushes", mFlushes);
+            JSONObject sensors = new JSONObject();
+            for (SensorRate rate : mRates) {
+                if (rate != null) {
+                    sensors.put(rate.name, rate.toJSON());
+                }
+            }
+            stats.put("sensors", sensors);
         } catch (JSONException e) {
             e.printStackTrace();
         }
+        return stats;
+    }
+
+    public void resume() {
+        Log.d("SensorHelper", "resume");
+        register();
+    }
+
+    private void postResult(Samples samples, long timestamp, float x, float y, float z) {
+        int i = samples.add(timestamp);
+        samples.values[0][i] = x;
+        samples.values[1][i] = y;
+        samples.values[2][i] = z;
+        flush(samples, timestamp);
+    }
+
+    private void flush(Samples samples, long timestamp) {
+        if (samples.shouldFlush(timestamp)) {
+            deliver(samples, timestamp);
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private void deliver(Samples samples, long timestamp) {
+        mListener.onSamples(samples);
+        samples.flushed(timestamp);
+    }
+
+    // the next event may be far off when a batch ends or a sensor goes quiet, so buffered samples also have a deadline
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushTask, FLUSH_INTERVAL);
+        }
+    }
+
+    private void flushAll() {
+        mHandler.removeCallbacks(mFlushTask);
+        mFlushScheduled = false;
+        if (mListener == null) {
+            return;
+        }
+        for (Samples samples : mSamples) {
+            if (samples.count > 0) {
+                deliver(samples, samples.timestamps[samples.count - 1]);
+            }
+        }
+        mAccQueue.flush();
+    }
+
+    private static float[] copy(float[] from, float[] to) {
+        if (to == null || to.length != from.length) {
+            to = new float[from.length];
+        }
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
     }
 
-    private class MySensorEventListener implements SensorEventListener {
+    private class MySensorEventListener implements SensorEventListener2 {
 
         private final double G = SensorManager.STANDARD_GRAVITY;
         private float[] inR = new float[16];
         private float[] outR = new float[16];
         private float[] oriValues = new float[3];
+        // one output array per computation so that no result can be overwritten by another one
+        private final float[] mAccMean = new float[3];
+        private final float[] mGyroOrientation = new float[3];
+        private final float[] mOriMean = new float[3];
 
 
         // Define heading accuracy levels
@@ -136,24 +377,35 @@ public class SensorHelper {
 
         @Override
         public void onSensorChanged(SensorEvent event) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (now - mLastCallback > BURST_GAP) {
+                mWakeups++;
+            }
+            mLastCallback = now;
             long timestamp = System.currentTimeMillis() - SystemClock.elapsedRealtime() + event.timestamp / 1000000;
-            float values[];
-            switch (event.sensor.getType()) {
+            int type = event.sensor.getType();
+            for (int i = 0; i < SENSOR_TYPES.length; i++) {
+                if (SENSOR_TYPES[i] == type && mRates[i] != null) {
+                    mRates[i].add(event.timestamp);
+                }
+            }
+            switch (type) {
                 case Sensor.TYPE_ACCELEROMETER:
-                    values = mAccAverage.add(accValues = event.values.clone(), timestamp);
-                    if (values != null) {
+                    accValues = copy(event.values, accValues);
+                    mAccHistory.add(event.timestamp, accValues);
+                    if (mAccAverage.add(accValues, timestamp, mAccMean)) {
+                        mMotionDetector.add(mAccMean);
                         // Record raw accelerometer values
-                        mAccQueue.add("ACCELEROMETER", new float[]{(float) (-accValues[0] / G), (float) (-accValues[1] / G), (float) (-accValues[2] / G)}, timestamp);
+                        mAccQueue.add((float) (-accValues[0] / G), (float) (-accValues[1] / G), (float) (-accValues[2] / G), timestamp);
                     }
                     break;
                 case Sensor.TYPE_MAGNETIC_FIELD:
-                    magValues = event.values.clone();
-                    calcOrientation(timestamp);
+                    magValues = copy(event.values, magValues);
+                    calcOrientation(timestamp, mAccHistory.at(event.timestamp));
                     break;
                 case Sensor.TYPE_GYROSCOPE:
-                    values = mGyroAngles.add(event);
-                    if (values != null) {
-                        postResult("MOTION", values, timestamp);
+                    if (mGyroAngles.add(event, mGyroOrientation)) {
+                        postResult(mMotion, timestamp, mGyroOrientation[0], mGyroOrientation[1], mGyroOrientation[2]);
                     }
                     break;
                 case Sensor.TYPE_GAME_ROTATION_VECTOR:
@@ -175,31 +427,32 @@ public class SensorHelper {
                 case Sensor.TYPE_PRESSURE:
                     // get Altitude
                     if (initialPressValues == null) {
-                        initialPressValues = event.values.clone();
-                        pressValues = event.values.clone();
+                        initialPressValues = copy(event.values, null);
+                        pressValues = copy(event.values, pressValues);
                         return;
                     }
                     float currentAltitude = SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, event.values[0]);
                     float initialAltitude = SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, initialPressValues[0]);
                     float relativeAltitude =  currentAltitude - initialAltitude;
-                    pressValues = event.values.clone();
-
-                    try {
-                        JSONObject obj = new JSONObject();
-                        obj.put("timestamp", timestamp);
-                        obj.put("type", "ALTIMETER");
-                        obj.put("relativeAltitude", relativeAltitude);
-                        obj.put("pressure", event.values[0] / 10.0);
-                        mListener.onSuccess(new JSONArray().put(obj));
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
+                    pressValues = copy(event.values, pressValues);
+
+                    int i = mAltimeter.add(timestamp);
+                    mAltimeter.values[0][i] = relativeAltitude;
+                    mAltimeter.values[1][i] = event.values[0] / 10.0f;
+                    flush(mAltimeter, timestamp);
                     break;
                 default:
                     Log.e("", "Unknown sensor " + event.sensor);
             }
         }
 
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            mFlushes++;
+            Log.d("SensorHelper", "flushed " + sensor.getName());
+            flushAll();
+        }
+
         @Override
         public void onAccuracyChanged(Sensor sensor, int accuracy) {
             // Update heading accuracy
@@ -224,12 +477,12 @@ public class SensorHelper {
             }
         }
 
-        private void calcOrientation(long timestamp) {
+        private void calcOrientation(long timestamp, float[] accValues) {
             if (accValues != null && magValues != null) {
                 if (SensorManager.getRotationMatrix(inR, null, accValues, magValues) && SensorManager.remapCoordinateSystem(inR, SensorManager.AXIS_X, SensorManager.AXIS_Y, outR)) {
-                    float values[] = mOriAverage.add(SensorManager.getOrientation(outR, oriValues), timestamp);
-                    if (values != null) {
-                        postResult("ORIENTATION", new float[]{values[1], values[2], -values[0]}, timestamp);
+                    float[] values = mOriMean;
+                    if (mOriAverage.add(SensorManager.getOrientation(outR, oriValues), timestamp, values)) {
+                        postResult(mOrientation, timestamp, values[1], values[2], -values[0]);
                         double magneticHeading = Math.toDegrees(values[0]);
                         if(magneticHeading<0.0){
                             magneticHeading += 360.0;
@@ -249,20 +502,15 @@ public class SensorHelper {
                             // trueHeading = -1; // commented out this line because using magneticHeading instead of trueHeading would be better than completely ignoring the heading information.
                         }
 
-                        JSONObject obj = new JSONObject();
-                        try {
-                            obj.put("timestamp", timestamp);
-                            obj.put("type", "HEADING");
-                            obj.put("magneticHeading", magneticHeading);
-                            obj.put("trueHeading", trueHeading);
-                            obj.put("headingAccuracy", headingAccuracy);
-                            obj.put("x", magValues[0]);
-                            obj.put("y", magValues[1]);
-                            obj.put("z", magValues[2]);
-                            mListener.onSuccess(new JSONArray().put(obj));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
+                        int i = mHeading.add(timestamp);
+                        float[][] heading = mHeading.values;
+                        heading[0][i] = (float) magneticHeading;
+                        heading[1][i] = (float) trueHeading;
+                        heading[2][i] = (float) headingAccuracy;
+                        heading[3][i] = magValues[0];
+                        heading[4][i] = magValues[1];
+                        heading[5][i] = magValues[2];
+                        flush(mHeading, timestamp);
                     }
                 }
             }
@@ -274,7 +522,8 @@ public class SensorHelper {
         private long mLastTimestamp;
         private int mCount;
 
-        public float[] add(float[] values, long timestamp) {
+        // writes the averages into out and returns true when they are due
+        public boolean add(float[] values, long timestamp, float[] out) {
             mValues[0].add(values[0]);
             mValues[1].add(values[1]);
             mValues[2].add(values[2]);
@@ -283,34 +532,41 @@ public class SensorHelper {
 //                System.out.println((timestamp - mLastTimestamp) + "ms " + mCount + "/" + mValues[0].size());
                 mLastTimestamp = timestamp;
                 mCount = 0;
-                return new float[]{mValues[0].average(), mValues[1].average(), mValues[2].average()};
+                out[0] = mValues[0].average();
+                out[1] = mValues[1].average();
+                out[2] = mValues[2].average();
+                return true;
             }
-            return null;
+            return false;
         }
 
         private class AveValues {
             private float sum;
-            private ArrayDeque<Float> queue = new ArrayDeque<>();
+            private final float[] queue = new float[3];
+            private int head, size;
 
             public void clear() {
                 sum = 0;
-                queue.clear();
+                head = size = 0;
             }
 
             public int size() {
-                return queue.size();
+                return size;
             }
 
             public void add(float value) {
                 sum += value;
-                queue.add(value);
-                if (queue.size() > 3) {
-                    sum -= queue.poll();
+                if (size == queue.length) {
+                    sum -= queue[head];
+                    queue[head] = value;
+                    head = (head + 1) % queue.length;
+                } else {
+                    queue[(head + size++) % queue.length] = value;
                 }
             }
 
             public float average() {
-                return sum / queue.size();
+                return sum / size;
             }
         }
     }
@@ -320,7 +576,8 @@ public class SensorHelper {
         private long mLastTimestamp;
         private int mCount;
 
-        public float[] add(float[] values, long timestamp) {
+        // writes the averages into out and returns true when they are due
+        public boolean add(float[] values, long timestamp, float[] out) {
             mValues[0].add(values[0]);
             mValues[1].add(values[1]);
             mValues[2].add(values[2]);
@@ -329,59 +586,183 @@ public class SensorHelper {
 //                System.out.println((timestamp - mLastTimestamp) + "ms " + mCount + "/" + mValues[0].size());
                 mLastTimestamp = timestamp;
                 mCount = 0;
-                return new float[]{mValues[0].average(), mValues[1].average(), mValues[2].average()};
+                out[0] = mValues[0].average();
+                out[1] = mValues[1].average();
+                out[2] = mValues[2].average();
+                return true;
             }
-            return null;
+            return false;
         }
 
         private class AveAngles {
             private float sumSin, sumCos;
-            private ArrayDeque<Float> queue = new ArrayDeque<>();
+            private final float[] queue = new float[15];
+            private int head, size;
 
             public void clear() {
                 sumSin = sumCos = 0;
-                queue.clear();
+                head = size = 0;
             }
 
             public int size() {
-                return queue.size();
+                return size;
             }
 
             public void add(float rad) {
                 sumSin += (float) Math.sin(rad);
                 sumCos += (float) Math.cos(rad);
-                queue.add(rad);
-                if (queue.size() > 15) {
-                    float old = queue.poll();
+                if (size == queue.length) {
+                    float old = queue[head];
                     sumSin -= Math.sin(old);
                     sumCos -= Math.cos(old);
+                    queue[head] = rad;
+                    head = (head + 1) % queue.length;
+                } else {
+                    queue[(head + size++) % queue.length] = rad;
                 }
             }
 
             public float average() {
-                int size = queue.size();
                 return (float) Math.atan2(sumSin / size, sumCos / size);
             }
         }
     }
 
+    /*
+     * Recent accelerometer samples by event time.
+     */
+    private static class AccHistory {
+        private final long[] mTimestamps = new long[ACC_HISTORY];
+        private final float[][] mValues = new float[ACC_HISTORY][3];
+        private int mHead, mSize;
+
+        void add(long timestamp, float[] values) {
+            int i = (mHead + mSize) % ACC_HISTORY;
+            if (mSize == ACC_HISTORY) {
+                mHead = (mHead + 1) % ACC_HISTORY;
+            } else {
+                mSize++;
+            }
+            mTimestamps[i] = timestamp;
+            System.arraycopy(values, 0, mValues[i], 0, 3);
+        }
+
+        // the latest sample not after timestamp, the oldest if all are later, null if empty
+        float[] at(long timestamp) {
+            if (mSize == 0) {
+                return null;
+            }
+            int lo = 0, hi = mSize - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (mTimestamps[(mHead + mid) % ACC_HISTORY] <= timestamp) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return mValues[(mHead + lo) % ACC_HISTORY];
+        }
+    }
+
+    /*
+     * Event count and span of one sensor, for the achieved sampling rate.
+     */
+    private static class SensorRate {
+        final String name;
+        final int fifoReserved, fifoMax;
+        boolean batching;
+        long events, first, last;
+
+        SensorRate(Sensor sensor) {
+            name = sensor.getName();
+            fifoReserved = sensor.getFifoReservedEventCount();
+            fifoMax = sensor.getFifoMaxEventCount();
+        }
+
+        void add(long timestamp) {
+            if (events++ == 0) {
+                first = timestamp;
+            }
+            last = timestamp;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            return new JSONObject()
+                    .put("events", events)
+                    .put("rate", events > 1 && last > first ? (events - 1) * 1e9 / (last - first) : 0)
+                    .put("batching", batching)
+                    .put("fifoReserved", fifoReserved)
+                    .put("fifoMax", fifoMax);
+        }
+    }
+
+    public boolean isStationary() {
+        return mMotionDetector.isStationary();
+    }
+
+    private class MotionDetector {
+        private static final int WINDOW = 256;
+        private static final double STATIONARY_VARIANCE = 0.09; // (m/s^2)^2
+        private final float[] mMagnitudes = new float[WINDOW];
+        private double mSum, mSumSq;
+        private int mPos, mCount;
+        private volatile boolean mStationary = false;
+
+        public void add(float[] values) {
+            float magnitude = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+            if (mCount == WINDOW) {
+                float old = mMagnitudes[mPos];
+                mSum -= old;
+                mSumSq -= old * old;
+            } else {
+                mCount++;
+            }
+            mMagnitudes[mPos] = magnitude;
+            mSum += magnitude;
+            mSumSq += magnitude * magnitude;
+            mPos = (mPos + 1) % WINDOW;
+            if (mCount == WINDOW) {
+                double mean = mSum / mCount;
+                mStationary = mSumSq / mCount - mean * mean < STATIONARY_VARIANCE;
+            }
+        }
+
+        public boolean isStationary() {
+            return mStationary;
+        }
+    }
+
     private class AccQueue {
-        private JSONArray mQueue = new JSONArray();
+        private long[] mTimestamps = new long[128];
+        private float[] mValues = new float[128 * 3];
+        private int mCount;
         private long mLastTimestamp;
 
-        public void add(String type, float[] values, long timestamp) {
-            try {
-                mQueue.put(newResult(type, values, timestamp));
-                if (timestamp > mLastTimestamp + 100) {
-                    mListener.onSuccess(mQueue);
-                    mQueue = new JSONArray();
-                    mLastTimestamp = timestamp;
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
+        public void add(float x, float y, float z, long timestamp) {
+            if (mCount == mTimestamps.length) {
+                mTimestamps = Arrays.copyOf(mTimestamps, mCount * 2);
+                mValues = Arrays.copyOf(mValues, mCount * 2 * 3);
+            }
+            mTimestamps[mCount] = timestamp;
+            mValues[mCount * 3] = x;
+            mValues[mCount * 3 + 1] = y;
+            mValues[mCount * 3 + 2] = z;
+            mCount++;
+            if (timestamp > mLastTimestamp + 100) {
+                flush();
+            } else {
+                scheduleFlush();
             }
         }
 
+        public void flush() {
+            if (mCount > 0) {
+                mListener.onAccelerations(mTimestamps, mValues, mCount);
+                mLastTimestamp = mTimestamps[mCount - 1];
+                mCount = 0;
+            }
+        }
     }
 
     private class GyroscopeAngles {
@@ -397,16 +778,23 @@ public class SensorHelper {
         final double EPS_ACC = 0.1;
         private final double betaTiltCorrection = 0.02; // (0<=beta<=1.0) A small value slowly corrects tilt angle.
 
-        public float[] add(SensorEvent event) {
+        private final float[] mVector = new float[4];
+        private final float[] mRotation = new float[9];
+        private final float[] mAngles = new float[3];
+
+        // writes the orientation into out and returns true when it is due
+        public boolean add(SensorEvent event, float[] out) {
             onSensorChanged(event);
             if (event.timestamp >= mLastTimestamp + 100 * 1000000) {
                 mLastTimestamp = event.timestamp;
-                return getOrientation();
+                return getOrientation(out);
             }
-            return null;
+            return false;
         }
 
         public void onSensorChanged(SensorEvent event) {
+            // batched sensors are delivered in separate bursts, so take the accelerometer sample of the same moment
+            float[] accValues = mAccHistory.at(event.timestamp);
             if (qGyroscope == null) {
                 if (accValues == null || magValues == null) {
                     return;
@@ -417,6 +805,9 @@ public class SensorHelper {
 
             // This timestamp's delta rotation to be multiplied by the current rotation
             // after computing it from the gyro sample data.
+            if (event.timestamp <= mPrevTimestamp) {
+                return;
+            }
             if (mPrevTimestamp != 0 && qGyroscope != null) {
                 // Axis of the rotation sample, not normalized yet.
                 double axisX = event.values[0];
@@ -464,28 +855,31 @@ public class SensorHelper {
             mPrevTimestamp = event.timestamp;
         }
 
-        public float[] getOrientation() {
+        public boolean getOrientation(float[] out) {
             if (qGyroscope == null) {
-                return null;
+                return false;
             }
             // Now we get a structure we can pass to get a rotation matrix, and
             // then an orientation vector from Android.
-            float[] vector = new float[]{
-                    (float) qGyroscope.getQ1(),
-                    (float) qGyroscope.getQ2(),
-                    (float) qGyroscope.getQ3(),
-                    (float) qGyroscope.getScalarPart()};
+            float[] vector = mVector;
+            vector[0] = (float) qGyroscope.getQ1();
+            vector[1] = (float) qGyroscope.getQ2();
+            vector[2] = (float) qGyroscope.getQ3();
+            vector[3] = (float) qGyroscope.getScalarPart();
 
             // We need a rotation matrix so we can get the orientation vector...
             // Getting Euler angles from a quaternion is not trivial, so this is the easiest
             // way, but perhaps not the fastest way of doing this.
-            float[] rm = new float[9];
+            float[] rm = mRotation;
             SensorManager.getRotationMatrixFromVector(rm, vector);
 
             // Get the fused orientation
-            float[] values = new float[3];
+            float[] values = mAngles;
             SensorManager.getOrientation(rm, values);
-            return new float[]{-values[1], values[2], -values[0]};
+            out[0] = -values[1];
+            out[1] = values[2];
+            out[2] = -values[0];
+            return true;
         }
 
         private Quaternion getTiltCorrectionFromAcc(Quaternion qGyro, float[] accValues, double beta){
@@ -23,6 +23,7 @@
 package hulop.navcog.helpers;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Handler;
@@ -32,15 +33,21 @@ import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.File;
+import java.util.List;
 import java.util.UUID;
 
+import hulop.jni.LocalizationResult;
 import hulop.jni.Localizer;
 import hulop.navcog.R;
+import hulop.navcog.localizers.AnchorTransform;
+import hulop.navcog.localizers.BeaconFrame;
+import hulop.navcog.localizers.BeaconRegion;
 import hulop.navcog.localizers.BleLocalizer;
 import hulop.navcog.localizers.OSLocalizer;
+import hulop.navcog.localizers.RssiEstimator;
+import hulop.navcog.localizers.ScanScheduler;
 
 import static android.content.Context.VIBRATOR_SERVICE;
 
@@ -50,8 +57,15 @@ public class ServiceManager {
     private final Activity mActivity;
     private final Handler mHandler = new Handler();
     private SharedPreferences mPrefs;
-    private boolean mLoggingBLE, mShowDebugInfo;
+    private boolean mLoggingBLE, mShowDebugInfo, mBleFilter = true, mBleAdaptive = true, mModelHotSwap = true;
+    private RssiEstimator.Type mRssiEstimator = RssiEstimator.Type.WINDOW_MEAN;
+    private int mRssiWindow = 10;
+    private long mReorderWindow = IngestScheduler.DEFAULT_REORDER_WINDOW;
+    private long mWarmupWindow = WarmupBuffer.DEFAULT_MAX_AGE;
+    private long mBatchLatency = SensorHelper.DEFAULT_BATCH_LATENCY;
     public static boolean sDevMode, sLoggingNavi;
+    // scanning and sensors are paused but the localizer and its model stay loaded
+    private boolean mHibernating = false;
 
     private IndoorLocationManager mIndoorManager;
     private BleLocalizer mBleLocalizer;
@@ -63,7 +77,6 @@ public class ServiceManager {
     private LogHelper mLogHelper;
     private int mSensorDebug = 0;
     private String mDeviceID;
-    private long lastOrientationSent;
 
     public ServiceManager(Activity activity) {
         this.mActivity = activity;
@@ -115,52 +128,25 @@ public class ServiceManager {
     public void foregroundService(boolean start) {
         if (start) {
             mHandler.removeCallbacksAndMessages(null);
+            if (mHibernating) {
+                wakeUp();
+            } else if (mSensorHelper != null) {
+                mSensorHelper.flush();
+            }
             if (mIndoorManager == null) {
                 Localizer.LocalizeMode mode = mPrefs.getBoolean("debug_pdr", false) ? Localizer.LocalizeMode.WEAK_POSE_RANDOM_WALKER : Localizer.LocalizeMode.ONESHOT;
                 mIndoorManager = new IndoorLocationManager(mActivity);
-                mIndoorManager.start(mode, new Localizer.Listener() {
+                mIndoorManager.setReorderWindow(mReorderWindow);
+                mIndoorManager.setSensorBatching(mBatchLatency > 0);
+                mIndoorManager.setHotSwap(mModelHotSwap);
+                mIndoorManager.setWarmupWindow(mWarmupWindow);
+                mIndoorManager.start(mode, newLocationListener());
+                mIndoorManager.setPlaybackListener(newLocationListener());
+                mIndoorManager.setModelListener(new IndoorLocationManager.ModelListener() {
                     @Override
-                    public void onUpdated(double x, double y, double z, double floor, double lat, double lng, double orientation, double velocity, double[] debug_info, double[] debug_latlng) {
-//                System.out.println("x=" + x + ", y=" + y + ", z=" + z + ", floor=" + floor + ", orientation=" + orientation + ", velocity=" + velocity);
-                        try {
-                            JSONObject location = new JSONObject();
-                            location.put("x", x);
-                            location.put("y", y);
-                            location.put("z", z);
-                            location.put("floor", floor);
-                            location.put("lat", lat);
-                            location.put("lng", lng);
-                            location.put("orientation", 999);
-                            location.put("velocity", velocity);
-                            if (mShowDebugInfo) {
-                                if (debug_info != null) {
-                                    location.put("debug_info", new JSONArray(debug_info));
-                                }
-                                if (debug_latlng != null) {
-                                    location.put("debug_latlng", new JSONArray(debug_latlng));
-                                }
-                            } else {
-                                location.put("debug_info", new JSONArray());
-                                location.put("debug_latlng", new JSONArray());
-                            }
-                            mIndoorManager.setAnchor(location);
-//                    System.out.println(location.toString());
-                            BrowserHelper.instance.fire(String.format("onData('XYZ',%s)", location));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                        long now = System.currentTimeMillis();
-                        if (now < lastOrientationSent + 200) {
-                            return;
-                        }
-                        lastOrientationSent = now;
-                        try {
-                            JSONObject sensor = new JSONObject();
-                            sensor.put("type", "ORIENTATION");
-                            sensor.put("z", mIndoorManager.convertOrientation(orientation));
-                            BrowserHelper.instance.fire(String.format("onData('Sensor',[%s])", sensor));
-                        } catch (JSONException e) {
-                            e.printStackTrace();
+                    public void onModelLoaded(List<BeaconRegion> regions) {
+                        if (mBleLocalizer != null) {
+                            mBleLocalizer.setRegions(regions);
                         }
                     }
                 });
@@ -188,25 +174,38 @@ public class ServiceManager {
                 });
             }
             if (mBleLocalizer == null) {
-                (mBleLocalizer = new BleLocalizer(mActivity)).start(new BleLocalizer.BleListener() {
+                mBleLocalizer = new BleLocalizer(mActivity);
+                mBleLocalizer.setFilterEnabled(mBleFilter);
+                mBleLocalizer.setRegions(mIndoorManager.getBeaconRegions());
+                mBleLocalizer.getScheduler().setAdaptive(mBleAdaptive);
+                mBleLocalizer.setRssiEstimator(mRssiEstimator, mRssiWindow);
+                mBleLocalizer.getScheduler().setStateProvider(new ScanScheduler.StateProvider() {
                     @Override
-                    public void onSuccess(JSONArray array) {
-                        if (mIndoorManager != null) {
-                            mIndoorManager.setDebug(mShowDebugInfo);
+                    public boolean isStationary() {
+                        return mSensorHelper != null && mSensorHelper.isStationary();
+                    }
+
+                    @Override
+                    public Localizer.LocationStatus getLocationStatus() {
+                        return mIndoorManager != null ? mIndoorManager.getLocationStatus() : Localizer.LocationStatus.UNKNOWN;
+                    }
+                });
+                mBleLocalizer.start(new BleLocalizer.BleListener() {
+                    @Override
+                    public void onSuccess(BeaconFrame frame) {
+                        // called on the BleLocalizer thread
+                        IndoorLocationManager indoorManager = mIndoorManager;
+                        if (indoorManager != null) {
+                            indoorManager.setDebug(mShowDebugInfo);
                             long timestamp = System.currentTimeMillis();
-                            mIndoorManager.onBeaconData(timestamp, array);
+                            indoorManager.onBeaconData(timestamp, frame);
                         }
-//                        BrowserHelper.instance.fire(String.format("onData('BLE',%s)", array));
+//                        BrowserHelper.instance.fire(String.format("onData('BLE',%s)", frame.toJSON()));
                         if (sLoggingNavi && mLoggingBLE) {
                             StringBuilder sb = new StringBuilder();
-                            sb.append(String.format("Beacon,%d", array.length()));
-                            for (int i = 0; i < array.length(); i++) {
-                                try {
-                                    JSONObject obj = array.getJSONObject(i);
-                                    sb.append(String.format(",%d,%d,%d", obj.getInt("major"), obj.getInt("minor"), obj.getInt("rssi")));
-                                } catch (JSONException e) {
-                                    e.printStackTrace();
-                                }
+                            sb.append("Beacon,").append(frame.count);
+                            for (int i = 0; i < frame.count; i++) {
+                                sb.append(',').append(frame.major[i]).append(',').append(frame.minor[i]).append(',').append((int) frame.rssi[i]);
                             }
                             mLogHelper.appendText(sb.toString());
                         }
@@ -214,43 +213,44 @@ public class ServiceManager {
                 });
             }
             if (mSensorHelper == null) {
-                (mSensorHelper = new SensorHelper(mActivity)).start(new SensorHelper.SensorListener() {
+                mSensorHelper = new SensorHelper(mActivity);
+                mSensorHelper.setBatchLatency(mBatchLatency);
+                mSensorHelper.start(new SensorHelper.SensorListener() {
                     @Override
-                    public void onSuccess(JSONArray array) {
+                    public void onAccelerations(long[] timestamps, float[] xyz, int count) {
                         if (mIndoorManager != null) {
-                            mIndoorManager.onSensorData(array);
+                            mIndoorManager.onAccelerations(timestamps, xyz, count);
                         }
-                        try {
-                            String type = array.getJSONObject(0).getString("type");
-                            if (!type.equals("ACCELEROMETER")) {
-                                mSensorDebug = 0;
-                            } else {
-                                mSensorDebug++;
-                            }
-                            if (mSensorDebug <= 1) {
-//                                BrowserHelper.instance.fire(String.format("onData('Sensor',%s)", array));
+                        mSensorDebug++;
+                        if (sLoggingNavi && mLoggingBLE) {
+                            for (int i = 0; i < count; i++) {
+                                mLogHelper.appendText(String.format("Acc,%f,%f,%f,%d", xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2], timestamps[i]));
                             }
-                        } catch (JSONException e) {
-                            e.printStackTrace();
                         }
+                    }
+
+                    @Override
+                    public void onSamples(SensorHelper.Samples samples) {
+                        if (mIndoorManager != null) {
+                            mIndoorManager.onSamples(samples);
+                        }
+                        mSensorDebug = 0;
+//                        BrowserHelper.instance.fire(String.format("onData('Sensor',%s)", samples.toJSON()));
                         if (sLoggingNavi && mLoggingBLE) {
-                            for (int i = 0; i < array.length(); i++) {
-                                try {
-                                    JSONObject obj = array.getJSONObject(i);
-                                    switch (obj.getString("type")) {
-                                        case "ACCELEROMETER":
-                                            mLogHelper.appendText(String.format("Acc,%f,%f,%f,%d", obj.getDouble("x"), obj.getDouble("y"), obj.getDouble("z"), obj.getLong("timestamp")));
-                                            break;
-                                        case "MOTION":
-                                            mLogHelper.appendText(String.format("Motion,%f,%f,%f,%d", obj.getDouble("x"), obj.getDouble("y"), obj.getDouble("z"), obj.getLong("timestamp")));
-                                            break;
-                                        case "ORIENTATION":
-                                            mLogHelper.appendText(String.format("Orientation,%f,%f,%f,%d", obj.getDouble("x"), obj.getDouble("y"), obj.getDouble("z"), obj.getLong("timestamp")));
-                                            break;
-                                    }
-                                } catch (JSONException e) {
-                                    e.printStackTrace();
-                                }
+                            String format;
+                            switch (samples.type) {
+                                case MOTION:
+                                    format = "Motion,%f,%f,%f,%d";
+                                    break;
+                                case ORIENTATION:
+                                    format = "Orientation,%f,%f,%f,%d";
+                                    break;
+                                default:
+                                    return;
+                            }
+                            float[][] v = samples.values;
+                            for (int i = 0; i < samples.count; i++) {
+                                mLogHelper.appendText(String.format(format, v[0][i], v[1][i], v[2][i], samples.timestamps[i]));
                             }
                         }
                     }
@@ -262,15 +262,50 @@ public class ServiceManager {
             mHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    stopForegroundServices();
+                    hibernate();
                     ((Vibrator) mActivity.getSystemService(VIBRATOR_SERVICE)).vibrate(navigating ? 500 : 100);
                 }
             }, (navigating ? 900 : 300) * 1000);
         }
     }
 
+    /*
+     * Memory pressure decides when hibernation turns into a full stop.
+     */
+    public void onTrimMemory(int level) {
+        Log.d("ServiceManager", "onTrimMemory level=" + level + " hibernating=" + mHibernating);
+        if ((mHibernating && level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) || level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            mHandler.removeCallbacksAndMessages(null);
+            stopForegroundServices();
+        }
+    }
+
+    private void hibernate() {
+        Log.d("ServiceManager", "hibernate");
+        mHibernating = true;
+        if (mBleLocalizer != null) {
+            mBleLocalizer.pause();
+        }
+        if (mSensorHelper != null) {
+            mSensorHelper.pause();
+        }
+    }
+
+    private void wakeUp() {
+        long start = System.currentTimeMillis();
+        mHibernating = false;
+        if (mBleLocalizer != null) {
+            mBleLocalizer.resume();
+        }
+        if (mSensorHelper != null) {
+            mSensorHelper.resume();
+        }
+        Log.d("ServiceManager", "wakeUp: " + (System.currentTimeMillis() - start) + "ms");
+    }
+
     private void stopForegroundServices() {
         Log.d("ServiceManager", "stopForegroundServices");
+        mHibernating = false;
         if (mIndoorManager != null) {
             mIndoorManager.stop();
             mIndoorManager = null;
@@ -319,6 +354,54 @@ public class ServiceManager {
         if (sDevMode = mPrefs.getBoolean("developer_mode", false)) {
             mLoggingBLE = mPrefs.getBoolean("log_ble", false);
             mShowDebugInfo = mPrefs.getBoolean("debug_info", false);
+            mBleFilter = mPrefs.getBoolean("ble_filter", true);
+            mBleAdaptive = mPrefs.getBoolean("ble_adaptive", true);
+            mModelHotSwap = mPrefs.getBoolean("model_hot_swap", true);
+            RssiEstimator.Type estimator = RssiEstimator.Type.fromString(mPrefs.getString("ble_rssi_estimator", null));
+            int window = mRssiWindow;
+            try {
+                window = Integer.parseInt(mPrefs.getString("ble_rssi_window", "10"));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            if (mBleLocalizer != null && (estimator != mRssiEstimator || window != mRssiWindow)) {
+                mBleLocalizer.setRssiEstimator(estimator, window);
+            }
+            mRssiEstimator = estimator;
+            mRssiWindow = window;
+            try {
+                mReorderWindow = Long.parseLong(mPrefs.getString("ingest_reorder_window", Long.toString(IngestScheduler.DEFAULT_REORDER_WINDOW)));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            try {
+                mWarmupWindow = Long.parseLong(mPrefs.getString("ingest_warmup_window", Long.toString(WarmupBuffer.DEFAULT_MAX_AGE)));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            try {
+                mBatchLatency = Long.parseLong(mPrefs.getString("sensor_batch_latency", Long.toString(SensorHelper.DEFAULT_BATCH_LATENCY)));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        } else {
+            mBleFilter = mBleAdaptive = mModelHotSwap = true;
+            mReorderWindow = IngestScheduler.DEFAULT_REORDER_WINDOW;
+            mWarmupWindow = WarmupBuffer.DEFAULT_MAX_AGE;
+            mBatchLatency = SensorHelper.DEFAULT_BATCH_LATENCY;
+        }
+        if (mIndoorManager != null) {
+            mIndoorManager.setReorderWindow(mReorderWindow);
+            mIndoorManager.setSensorBatching(mBatchLatency > 0);
+            mIndoorManager.setHotSwap(mModelHotSwap);
+            mIndoorManager.setWarmupWindow(mWarmupWindow);
+        }
+        if (mSensorHelper != null) {
+            mSensorHelper.setBatchLatency(mBatchLatency);
+        }
+        if (mBleLocalizer != null) {
+            mBleLocalizer.setFilterEnabled(mBleFilter);
+            mBleLocalizer.getScheduler().setAdaptive(mBleAdaptive);
         }
     }
 
@@ -333,7 +416,97 @@ public class ServiceManager {
         }
     };
 
+    public void onBuildingChanged(String building) {
+        if (mIndoorManager != null) {
+            mIndoorManager.onBuildingChanged(building);
+        }
+    }
+
     public void setBrowserListener(BrowserHelper.BrowserListener browserListener) {
         this.mBrowserListener = browserListener;
     }
+
+    /*
+     * Forwards localizer updates to the page. Live and playback results arrive on different threads,
+     * so each gets its own listener and builder.
+     */
+    private Localizer.Listener newLocationListener() {
+        return new Localizer.Listener() {
+            private final StringBuilder mBuilder = new StringBuilder(256);
+            private long lastOrientationSent, lastIngestStatsSent;
+
+            @Override
+            public void onUpdated(LocalizationResult result) {
+//                System.out.println("x=" + result.x + ", y=" + result.y + ", z=" + result.z + ", floor=" + result.floor + ", orientation=" + result.orientation + ", velocity=" + result.velocity);
+                if (!isFinite(result.x) || !isFinite(result.y) || !isFinite(result.z) || !isFinite(result.floor)
+                        || !isFinite(result.lat) || !isFinite(result.lng) || !isFinite(result.velocity)) {
+                    return;
+                }
+                AnchorTransform anchor = mIndoorManager.getAnchor();
+                if (anchor == null) {
+                    return;
+                }
+                StringBuilder sb = mBuilder;
+                sb.setLength(0);
+                sb.append("onData('XYZ',{\"x\":").append(result.x)
+                        .append(",\"y\":").append(result.y)
+                        .append(",\"z\":").append(result.z)
+                        .append(",\"floor\":").append(result.floor)
+                        .append(",\"lat\":").append(result.lat)
+                        .append(",\"lng\":").append(result.lng)
+                        .append(",\"orientation\":999")
+                        .append(",\"velocity\":").append(result.velocity)
+                        .append(",\"debug_info\":");
+                appendArray(sb, mShowDebugInfo ? result.getDebugInfo() : null);
+                sb.append(",\"debug_latlng\":");
+                appendArray(sb, mShowDebugInfo ? result.getDebugLatlng() : null);
+                sb.append(',');
+                anchor.appendTo(sb);
+                sb.append("})");
+//                    System.out.println(sb);
+                BrowserHelper.instance.fire(sb.toString());
+                long now = System.currentTimeMillis();
+                if (mShowDebugInfo && now >= lastIngestStatsSent + 1000) {
+                    lastIngestStatsSent = now;
+                    BrowserHelper.instance.fire(String.format("onData('Ingest',%s)", mIndoorManager.getIngestStats()));
+                    BrowserHelper.instance.fire(String.format("onData('Latency',%s)", LatencyHistogram.snapshotAll()));
+                    SensorHelper sensorHelper = mSensorHelper;
+                    if (sensorHelper != null) {
+                        BrowserHelper.instance.fire(String.format("onData('SensorRate',%s)", sensorHelper.getStats()));
+                    }
+                }
+                if (now < lastOrientationSent + 200) {
+                    return;
+                }
+                lastOrientationSent = now;
+                double orientation = anchor.toGlobalOrientation(result.orientation);
+                if (isFinite(orientation)) {
+                    sb.setLength(0);
+                    sb.append("onData('Sensor',[{\"type\":\"ORIENTATION\",\"z\":").append(orientation).append("}])");
+                    BrowserHelper.instance.fire(sb.toString());
+                }
+            }
+        };
+    }
+
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    private static void appendArray(StringBuilder sb, double[] values) {
+        sb.append('[');
+        if (values != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                if (isFinite(values[i])) {
+                    sb.append(values[i]);
+                } else {
+                    sb.append("null");
+                }
+            }
+        }
+        sb.append(']');
+    }
 }
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.helpers;
+
+import hulop.navcog.localizers.BeaconFrame;
+
+/*
+ * Holds the input released while the model is still loading and replays it as fast as possible once it is ready,
+ * so the filter starts with the last few seconds of evidence instead of nothing.
+ * Each stream keeps its newest records within a capacity and an age limit; replay merges the streams in timestamp order.
+ * Used only on the ingest thread.
+ */
+public class WarmupBuffer implements IngestScheduler.Sink {
+    public static final long DEFAULT_MAX_AGE = 10 * 1000;
+    private static final int BEACON_CAPACITY = 16;
+    private static final int ACC_CAPACITY = 2000;
+    private static final int RECORD_CAPACITY = 200;
+
+    private final Track mBeacons = new Track(IngestScheduler.Stream.BEACONS, BEACON_CAPACITY, 0);
+    private final Track mAccelerations = new Track(IngestScheduler.Stream.ACCELERATIONS, ACC_CAPACITY, 3);
+    private final Track mAttitude = new Track(IngestScheduler.Stream.ATTITUDE, RECORD_CAPACITY, 3);
+    private final Track mAltimeter = new Track(IngestScheduler.Stream.ALTIMETER, RECORD_CAPACITY, 2);
+    private final Track mHeading = new Track(IngestScheduler.Stream.HEADING, RECORD_CAPACITY, 6);
+    private final Track[] mTracks = {mBeacons, mAccelerations, mAttitude, mAltimeter, mHeading};
+    private final BeaconFrame[] mFrames = new BeaconFrame[BEACON_CAPACITY];
+    private long[] mAccTimestamps = new long[128];
+    private float[] mAccXyz = new float[128 * 3];
+    private volatile long mMaxAge = DEFAULT_MAX_AGE;
+    private long mNewest;
+    private int mDropped;
+
+    // 0 disables capturing
+    public void setMaxAge(long maxAge) {
+        mMaxAge = Math.max(maxAge, 0);
+    }
+
+    public boolean isEmpty() {
+        for (Track track : mTracks) {
+            if (track.size > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (Track track : mTracks) {
+            track.clear();
+        }
+        mNewest = 0;
+        mDropped = 0;
+    }
+
+    @Override
+    public void onBeacons(long timestamp, BeaconFrame frame) {
+        int i = add(mBeacons, timestamp);
+        if (i < 0) {
+            return;
+        }
+        if (mFrames[i] == null) {
+            mFrames[i] = new BeaconFrame();
+        }
+        mFrames[i].copyFrom(frame);
+        mFrames[i].timestamp = timestamp;
+    }
+
+    @Override
+    public void onAccelerations(long[] timestamps, float[] xyz, int count) {
+        for (int n = 0; n < count; n++) {
+            int i = add(mAccelerations, timestamps[n]);
+            if (i < 0) {
+                return;
+            }
+            double[] values = mAccelerations.values;
+            values[i] = xyz[n * 3];
+            values[i + 1] = xyz[n * 3 + 1];
+            values[i + 2] = xyz[n * 3 + 2];
+        }
+    }
+
+    @Override
+    public void onAttitude(long timestamp, double x, double y, double z) {
+        int i = add(mAttitude, timestamp);
+        if (i < 0) {
+            return;
+        }
+        double[] values = mAttitude.values;
+        values[i] = x;
+        values[i + 1] = y;
+        values[i + 2] = z;
+    }
+
+    @Override
+    public void onAltimeter(long timestamp, double relativeAltitude, double pressure) {
+        int i = add(mAltimeter, timestamp);
+        if (i < 0) {
+            return;
+        }
+        double[] values = mAltimeter.values;
+        values[i] = relativeAltitude;
+        values[i + 1] = pressure;
+    }
+
+    @Override
+    public void onHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+        int i = add(mHeading, timestamp);
+        if (i < 0) {
+            return;
+        }
+        double[] values = mHeading.values;
+        values[i] = magneticHeading;
+        values[i + 1] = trueHeading;
+        values[i + 2] = headingAccuracy;
+        values[i + 3] = x;
+        values[i + 4] = y;
+        values[i + 5] = z;
+    }
+
+    /*
+     * Reserves a record, expiring what has aged out, and returns the offset of its values (the slot for beacons),
+     * or -1 if capturing is disabled.
+     */
+    private int add(Track track, long timestamp) {
+        long maxAge = mMaxAge;
+        if (maxAge == 0) {
+            return -1;
+        }
+        if (timestamp > mNewest) {
+            mNewest = timestamp;
+            for (Track t : mTracks) {
+                mDropped += t.expire(mNewest - maxAge);
+            }
+        }
+        if (track.size == track.capacity) {
+            track.poll();
+            mDropped++;
+        }
+        int slot = (track.head + track.size++) % track.capacity;
+        track.timestamps[slot] = timestamp;
+        return track == mBeacons ? slot : slot * track.width;
+    }
+
+    /*
+     * Feeds everything captured to the sink in timestamp order and empties the buffer.
+     * Returns the number of records replayed.
+     */
+    public int replay(IngestScheduler.Sink sink) {
+        int replayed = 0;
+        while (true) {
+            Track track = null;
+            for (Track t : mTracks) {
+                if (t.size > 0 && (track == null || t.headTimestamp() < track.headTimestamp())) {
+                    track = t;
+                }
+            }
+            if (track == null) {
+                break;
+            }
+            int slot = track.head;
+            double[] v = track.values;
+            int i = slot * track.width;
+            switch (track.stream) {
+                case BEACONS:
+                    track.poll();
+                    sink.onBeacons(mFrames[slot].timestamp, mFrames[slot]);
+                    replayed++;
+                    break;
+                case ACCELERATIONS:
+                    replayed += replayAccelerations(sink);
+                    break;
+                case ATTITUDE:
+                    long timestamp = track.poll();
+                    sink.onAttitude(timestamp, v[i], v[i + 1], v[i + 2]);
+                    replayed++;
+                    break;
+                case ALTIMETER:
+                    timestamp = track.poll();
+                    sink.onAltimeter(timestamp, v[i], v[i + 1]);
+                    replayed++;
+                    break;
+                case HEADING:
+                    timestamp = track.poll();
+                    sink.onHeading(timestamp, v[i], v[i + 1], v[i + 2], v[i + 3], v[i + 4], v[i + 5]);
+                    replayed++;
+                    break;
+            }
+        }
+        clear();
+        return replayed;
+    }
+
+    // one batch of acceleration samples, up to the next head of another stream
+    private int replayAccelerations(IngestScheduler.Sink sink) {
+        long limit = Long.MAX_VALUE;
+        for (Track t : mTracks) {
+            if (t != mAccelerations && t.size > 0) {
+                limit = Math.min(limit, t.headTimestamp());
+            }
+        }
+        Track track = mAccelerations;
+        if (mAccTimestamps.length < track.size) {
+            mAccTimestamps = new long[track.capacity];
+            mAccXyz = new float[track.capacity * 3];
+        }
+        int count = 0;
+        while (track.size > 0 && (count == 0 || track.headTimestamp() <= limit)) {
+            int i = track.head * 3;
+            mAccXyz[count * 3] = (float) track.values[i];
+            mAccXyz[count * 3 + 1] = (float) track.values[i + 1];
+            mAccXyz[count * 3 + 2] = (float) track.values[i + 2];
+            mAccTimestamps[count++] = track.poll();
+        }
+        sink.onAccelerations(mAccTimestamps, mAccXyz, count);
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("WarmupBuffer(");
+        for (Track track : mTracks) {
+            sb.append(track.stream).append('=').append(track.size).append(' ');
+        }
+        return sb.append("dropped=").append(mDropped).append(')').toString();
+    }
+
+    /*
+     * Ring of records: a timestamp plus width doubles.
+     */
+    private static class Track {
+        final IngestScheduler.Stream stream;
+        final int capacity, width;
+        final long[] timestamps;
+        final double[] values;
+        int head, size;
+
+        Track(IngestScheduler.Stream stream, int capacity, int width) {
+            this.stream = stream;
+            this.capacity = capacity;
+            this.width = width;
+            timestamps = new long[capacity];
+            values = new double[capacity * width];
+        }
+
+        long headTimestamp() {
+            return timestamps[head];
+        }
+
+        long poll() {
+            long timestamp = timestamps[head];
+            head = (head + 1) % capacity;
+            size--;
+            return timestamp;
+        }
+
+        int expire(long oldest) {
+            int expired = 0;
+            while (size > 0 && timestamps[head] < oldest) {
+                poll();
+                expired++;
+            }
+            return expired;
+        }
+
+        void clear() {
+            head = size = 0;
+        }
+    }
+}
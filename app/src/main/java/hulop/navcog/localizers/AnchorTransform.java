@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+
+package hulop.navcog.localizers;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ * Immutable anchor of a model: the geographic origin and rotation of its local frame, parsed once per model
+ * with the rotation in radians cached for the per-update heading conversion.
+ * Local headings are in radians; global headings follow the convention the map expects.
+ */
+public final class AnchorTransform {
+    public final double latitude, longitude, rotate;
+    private final double mRotateRad;
+
+    public AnchorTransform(double latitude, double longitude, double rotate) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.rotate = rotate;
+        mRotateRad = rotate / 180 * Math.PI;
+    }
+
+    // {"latitude": .., "longitude": .., "rotate": ..} as found in a model
+    public static AnchorTransform fromJSON(JSONObject anchor) throws JSONException {
+        return new AnchorTransform(anchor.getDouble("latitude"), anchor.getDouble("longitude"), anchor.getDouble("rotate"));
+    }
+
+    public JSONObject toJSON() throws JSONException {
+        return new JSONObject().put("latitude", latitude).put("longitude", longitude).put("rotate", rotate);
+    }
+
+    // "anchor":{"lat":..,"lng":..},"rotate":.. for the map
+    public void appendTo(StringBuilder sb) {
+        sb.append("\"anchor\":{\"lat\":").append(latitude)
+                .append(",\"lng\":").append(longitude)
+                .append("},\"rotate\":").append(rotate);
+    }
+
+    public double toGlobalOrientation(double localOrientation) {
+        // same as -atan2(cos(g), sin(g)) with g = local - rotation
+        return Math.IEEEremainder(localOrientation - mRotateRad - Math.PI / 2, 2 * Math.PI);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof AnchorTransform)) {
+            return false;
+        }
+        AnchorTransform other = (AnchorTransform) o;
+        return latitude == other.latitude && longitude == other.longitude && rotate == other.rotate;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(latitude) * 31 + Double.doubleToLongBits(longitude) * 17 + Double.doubleToLongBits(rotate);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return latitude + "," + longitude + " " + rotate;
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/*
+ * One scan window of beacon observations in struct-of-arrays form.
+ * Frames are reused across windows; copy one with copyFrom() before handing it to another thread.
+ */
+public class BeaconFrame {
+    private static final int INITIAL_CAPACITY = 64;
+
+    public long timestamp;
+    public int count;
+    public int[] uuidId = new int[INITIAL_CAPACITY];
+    public String[] uuid = new String[INITIAL_CAPACITY];
+    public int[] major = new int[INITIAL_CAPACITY];
+    public int[] minor = new int[INITIAL_CAPACITY];
+    public float[] rssi = new float[INITIAL_CAPACITY];
+    public long[] firstSeen = new long[INITIAL_CAPACITY];
+
+    public void clear() {
+        count = 0;
+    }
+
+    public void add(int uuidId, String uuid, int major, int minor, float rssi, long firstSeen) {
+        ensureCapacity(count + 1);
+        this.uuidId[count] = uuidId;
+        this.uuid[count] = uuid;
+        this.major[count] = major;
+        this.minor[count] = minor;
+        this.rssi[count] = rssi;
+        this.firstSeen[count] = firstSeen;
+        count++;
+    }
+
+    public void copyFrom(BeaconFrame other) {
+        ensureCapacity(other.count);
+        timestamp = other.timestamp;
+        count = other.count;
+        System.arraycopy(other.uuidId, 0, uuidId, 0, count);
+        System.arraycopy(other.uuid, 0, uuid, 0, count);
+        System.arraycopy(other.major, 0, major, 0, count);
+        System.arraycopy(other.minor, 0, minor, 0, count);
+        System.arraycopy(other.rssi, 0, rssi, 0, count);
+        System.arraycopy(other.firstSeen, 0, firstSeen, 0, count);
+    }
+
+    public JSONArray toJSON() {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            try {
+                JSONObject obj = new JSONObject();
+                obj.put("timestamp", firstSeen[i]);
+                obj.put("uuid", uuid[i]);
+                obj.put("major", major[i]);
+                obj.put("minor", minor[i]);
+                obj.put("rssi", rssi[i]);
+                array.put(obj);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+        return array;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > major.length) {
+            int size = Math.max(capacity, major.length * 2);
+            uuidId = Arrays.copyOf(uuidId, size);
+            uuid = Arrays.copyOf(uuid, size);
+            major = Arrays.copyOf(major, size);
+            minor = Arrays.copyOf(minor, size);
+            rssi = Arrays.copyOf(rssi, size);
+            firstSeen = Arrays.copyOf(firstSeen, size);
+        }
+    }
+}
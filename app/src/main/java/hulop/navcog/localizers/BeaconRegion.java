@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import android.bluetooth.le.ScanFilter;
+import android.util.JsonReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A proximity UUID and the major range used with it in a localization model.
+ */
+public class BeaconRegion {
+    private static final int APPLE_COMPANY_ID = 0x004c;
+    public static final String[] BEACON_KEYS = new String[]{"beacons", "BLEBeacons"};
+
+    public final String uuid;
+    public final int minMajor;
+    public final int maxMajor;
+
+    public BeaconRegion(String uuid, int minMajor, int maxMajor) {
+        this.uuid = uuid.toUpperCase();
+        this.minMajor = minMajor;
+        this.maxMajor = maxMajor;
+    }
+
+    public boolean contains(int major) {
+        return minMajor <= major && major <= maxMajor;
+    }
+
+    public ScanFilter toScanFilter() {
+        String hex = uuid.replace("-", "");
+        byte[] data = new byte[20];
+        byte[] mask = new byte[20];
+        data[0] = 0x02;
+        data[1] = 0x15;
+        for (int i = 0; i < 16; i++) {
+            data[2 + i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        // match the bits shared by every major in the range; the rest is checked in software
+        int diff = minMajor ^ maxMajor;
+        int majorMask = diff == 0 ? 0xffff : ~((Integer.highestOneBit(diff) << 1) - 1) & 0xffff;
+        data[18] = (byte) ((minMajor & majorMask) >> 8);
+        data[19] = (byte) (minMajor & majorMask);
+        for (int i = 0; i < 18; i++) {
+            mask[i] = (byte) 0xff;
+        }
+        mask[18] = (byte) (majorMask >> 8);
+        mask[19] = (byte) majorMask;
+        return new ScanFilter.Builder().setManufacturerData(APPLE_COMPANY_ID, data, mask).build();
+    }
+
+    /*
+     * Reads a model beacon array, keeping only the uuid and major of each entry.
+     */
+    public static void readBeacons(JsonReader reader, Map<String, int[]> ranges) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String uuid = null;
+            int major = -1;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "uuid":
+                        uuid = reader.nextString();
+                        break;
+                    case "major":
+                        major = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (uuid != null && major >= 0) {
+                addBeacon(uuid, major, ranges);
+            }
+        }
+        reader.endArray();
+    }
+
+    static void addBeacon(String uuid, int major, Map<String, int[]> ranges) {
+        String key = uuid.toUpperCase();
+        int[] range = ranges.get(key);
+        if (range == null) {
+            ranges.put(key, new int[]{major, major});
+        } else {
+            range[0] = Math.min(range[0], major);
+            range[1] = Math.max(range[1], major);
+        }
+    }
+
+    public static List<BeaconRegion> toRegions(Map<String, int[]> ranges) {
+        List<BeaconRegion> regions = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : ranges.entrySet()) {
+            if (entry.getKey().replace("-", "").length() == 32) {
+                regions.add(new BeaconRegion(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+            }
+        }
+        return regions;
+    }
+
+    @Override
+    public String toString() {
+        return uuid + " " + minMajor + "-" + maxMajor;
+    }
+}
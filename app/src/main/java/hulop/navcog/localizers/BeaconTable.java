@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import java.util.Arrays;
+
+/*
+ * Per-window beacon aggregation keyed by packed (uuid id, major, minor).
+ * Entries are stored densely in insertion order so they can be walked by index.
+ */
+class BeaconTable {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final LongIntMap mIndex = new LongIntMap(INITIAL_CAPACITY);
+    private long[] mKeys = new long[INITIAL_CAPACITY];
+    private int[] mCount = new int[INITIAL_CAPACITY];
+    private long[] mRssiSum = new long[INITIAL_CAPACITY];
+    private long[] mTimestamp = new long[INITIAL_CAPACITY];
+    private int mSize;
+
+    public static long key(int uuidId, int major, int minor) {
+        return ((long) uuidId << 32) | ((long) major << 16) | minor;
+    }
+
+    public void add(long key, int rssi, long timestamp) {
+        int i = mIndex.get(key);
+        if (i == LongIntMap.NONE) {
+            if (mSize == mKeys.length) {
+                grow();
+            }
+            i = mSize++;
+            mIndex.put(key, i);
+            mKeys[i] = key;
+            mCount[i] = 0;
+            mRssiSum[i] = 0;
+            mTimestamp[i] = timestamp;
+        }
+        mCount[i]++;
+        mRssiSum[i] += rssi;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getKey(int i) {
+        return mKeys[i];
+    }
+
+    public int getUuidId(int i) {
+        return (int) (mKeys[i] >>> 32);
+    }
+
+    public int getMajor(int i) {
+        return (int) (mKeys[i] >>> 16) & 0xffff;
+    }
+
+    public int getMinor(int i) {
+        return (int) mKeys[i] & 0xffff;
+    }
+
+    public double getRssi(int i) {
+        return (double) mRssiSum[i] / mCount[i];
+    }
+
+    public long getTimestamp(int i) {
+        return mTimestamp[i];
+    }
+
+    public void clear() {
+        mIndex.clear();
+        mSize = 0;
+    }
+
+    private void grow() {
+        int capacity = mKeys.length * 2;
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mCount = Arrays.copyOf(mCount, capacity);
+        mRssiSum = Arrays.copyOf(mRssiSum, capacity);
+        mTimestamp = Arrays.copyOf(mTimestamp, capacity);
+    }
+}
@@ -32,35 +32,55 @@ import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import hulop.navcog.helpers.LatencyHistogram;
+
 public class BleLocalizer {
 
     //    private static final long KEEP_DURATION = 5 * 1000;
-    private static final long SCAN_ON = 6 * 1000, SCAN_OFF = 0;
-    private final Handler mHandler = new Handler();
-    private final ArrayList<BleScanResult> mDeviceList = new ArrayList<>();
+    private static final long REPORT_DELAY = 500;
+    private static final long WINDOW = 1000;
+    private final HandlerThread mThread = new HandlerThread("BleLocalizer", Process.THREAD_PRIORITY_FOREGROUND);
+    private final Handler mHandler;
+    private final BeaconTable mBeaconTable = new BeaconTable();
+    private final BeaconFrame mFrame = new BeaconFrame();
+    private final IBeaconParser mParser = new IBeaconParser();
     private final BluetoothAdapter mBluetoothAdapter;
+    private final ScanScheduler mScheduler;
+    private final int[] mMinMajor = new int[IBeaconParser.MAX_UUIDS], mMaxMajor = new int[IBeaconParser.MAX_UUIDS];
+    // immutable snapshot published by the model thread
+    private volatile List<BeaconRegion> mRegions = Collections.emptyList();
+    private volatile boolean mFilterEnabled = true;
+    private boolean mFiltering = false;
+    private boolean mScanning = false;
+    private RssiEstimator mEstimator;
     private BleScanner mScanner;
     private BleListener mListener;
+    // handler thread only
+    private Runnable mEmitter;
 
     public BleLocalizer(Context context) {
         this.mBluetoothAdapter = ((BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE)).getAdapter();
+        this.mScheduler = new ScanScheduler(context);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
         if (mBluetoothAdapter != null && !mBluetoothAdapter.isEnabled()) {
             mBluetoothAdapter.enable();
         }
     }
 
     public interface BleListener {
-        void onSuccess(JSONArray array);
+        // the frame is reused for the next window
+        void onSuccess(BeaconFrame frame);
     }
 
     public void start(final BleListener listener) {
@@ -77,186 +97,250 @@ public class BleLocalizer {
 //                Log.d("BleLocalizer", "Wait BLE enable...");
 //                return;
 //            }
-            mScanner = new BleScanner();
-
-            mHandler.post(new Runnable() {
-                private boolean scanning = false;
-
-                @Override
-                public void run() {
-                    if (mScanner != null) {
-                        scanning = !scanning;
-                        if (mBluetoothAdapter.isEnabled()) {
-                            try {
-                                if (scanning) {
-                                    mScanner.start();
-                                } else {
-                                    mScanner.stop();
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-                        mHandler.postDelayed(this, scanning ? SCAN_ON : SCAN_OFF);
+            mHandler.post(() -> mScanner = newScanner());
+            mHandler.post(this::schedule);
+        }
+    }
+
+    /*
+     * Stops scanning but keeps the scanner, filters and scan policy so that resume() is immediate.
+     */
+    public void pause() {
+        Log.d("BleLocalizer", "pause");
+        mHandler.post(() -> {
+            mHandler.removeCallbacks(mScanCycle);
+            mHandler.removeCallbacks(mEmitter);
+            if (mScanner != null && mScanning) {
+                if (mBluetoothAdapter.isEnabled()) {
+                    try {
+                        mScanner.stop();
+                    } catch (Exception e) {
+                        e.printStackTrace();
                     }
                 }
-            });
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    if (mScanner != null) {
-                        try {
-                            JSONArray array = getData();
-                            if (array.length() > 0) {
-                                mListener.onSuccess(array);
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        mHandler.postDelayed(this, 1000);
-                    }
+                mScheduler.onScanStopped();
+            }
+            mScanning = false;
+            // observations from before the pause must not leak into the first window after it
+            synchronized (mBeaconTable) {
+                mBeaconTable.clear();
+                if (mEstimator != null) {
+                    mEstimator.clear();
                 }
-            });
+            }
+        });
+    }
+
+    public void resume() {
+        Log.d("BleLocalizer", "resume");
+        if (mBluetoothAdapter != null) {
+            mHandler.post(this::schedule);
         }
     }
 
-    public void stop() {
-        Log.d("BleLocalizer", "stop");
-        if (mScanner != null) {
-            if (mBluetoothAdapter.isEnabled()) {
-                try {
-                    mScanner.stop();
-                } catch (Exception e) {
-                    e.printStackTrace();
+    private void schedule() {
+        mHandler.post(mScanCycle);
+        // emit on fixed window boundaries of the monotonic clock instead of chaining delays
+        final long origin = SystemClock.uptimeMillis();
+        mHandler.postAtTime(mEmitter = new Runnable() {
+            private long mNextWindow = origin;
+
+            @Override
+            public void run() {
+                if (mScanner != null) {
+                    try {
+                        long start = System.nanoTime();
+                        BeaconFrame frame = getData();
+                        LatencyHistogram.record(LatencyHistogram.Stage.BLE_EMIT, System.nanoTime() - start);
+                        if (frame.count > 0) {
+                            mListener.onSuccess(frame);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                    long now = SystemClock.uptimeMillis();
+                    mNextWindow += WINDOW;
+                    if (mNextWindow <= now) {
+                        mNextWindow += ((now - mNextWindow) / WINDOW + 1) * WINDOW;
+                    }
+                    mHandler.postAtTime(this, mNextWindow);
                 }
             }
-            mScanner = null;
-        }
+        }, origin);
     }
 
-    public JSONArray getData() {
-        JSONArray array = new JSONArray();
-        synchronized (mDeviceList) {
-//            clear(System.currentTimeMillis() - KEEP_DURATION);
-            for (BleScanResult result : mDeviceList) {
-                JSONObject obj = new JSONObject();
-                try {
-                    obj.put("timestamp", result.getTimestamp());
-                    obj.put("address", result.getDevice().getAddress());
-                    obj.put("uuid", result.getUuid());
-                    obj.put("major", result.getMajor());
-                    obj.put("minor", result.getMinor());
-                    obj.put("rssi", result.getRssi());
-                    array.put(obj);
-                } catch (JSONException e) {
-                    e.printStackTrace();
+    private final Runnable mScanCycle = new Runnable() {
+        @Override
+        public void run() {
+            if (mScanner != null && mScanning && mScanner.isBatching()) {
+                // a batching scan runs through the window boundary; stopping it would drop what the controller holds
+                mScheduler.onScanStopped();
+                if (mScheduler.update()) {
+                    Log.d("BleLocalizer", "scan policy " + mScheduler.getMetrics());
+                    replaceScanner();
+                }
+                mScheduler.onScanStarted();
+                mHandler.postDelayed(this, mScheduler.getPolicy().scanOn);
+            } else if (mScanner != null) {
+                mScanning = !mScanning;
+                if (mScanning && mScheduler.update()) {
+                    Log.d("BleLocalizer", "scan policy " + mScheduler.getMetrics());
+                    mScanner = newScanner();
                 }
+                if (mBluetoothAdapter.isEnabled()) {
+                    try {
+                        if (mScanning) {
+                            mScanner.start();
+                            mScheduler.onScanStarted();
+                        } else {
+                            mScanner.stop();
+                            mScheduler.onScanStopped();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                ScanScheduler.Policy policy = mScheduler.getPolicy();
+                mHandler.postDelayed(this, mScanning ? policy.scanOn : policy.scanOff);
             }
-            mDeviceList.clear();
         }
-        return array;
-    }
+    };
 
-//    private void clear(long expire) {
-//        for (Iterator<BleScanResult> it = mDeviceList.iterator(); it.hasNext(); ) {
-//            if (it.next().getTimestamp() < expire) {
-//                it.remove();
-//            }
-//        }
-//    }
-
-    private void addScanResult(BluetoothDevice device, int rssi, byte[] scanRecord, long timestamp) {
-        boolean isBeacon = (scanRecord.length > 30) && (scanRecord[5] == (byte) 0x4c) && (scanRecord[6] == (byte) 0x00) && (scanRecord[7] == (byte) 0x02) && (scanRecord[8] == (byte) 0x15);
-        if (isBeacon) {
-            synchronized (mDeviceList) {
-                for (BleScanResult result : mDeviceList) {
-                    if (result.mDevice.equals(device)) {
-                        result.addRssi(rssi);
-                        return;
+    public void stop() {
+        Log.d("BleLocalizer", "stop");
+        mHandler.post(() -> {
+            if (mScanner != null) {
+                if (mBluetoothAdapter.isEnabled()) {
+                    try {
+                        mScanner.stop();
+                    } catch (Exception e) {
+                        e.printStackTrace();
                     }
                 }
-                mDeviceList.add(new BleScanResult(device, rssi, scanRecord, timestamp));
+                mScheduler.onScanStopped();
+                mScanner = null;
+                Log.d("BleLocalizer", "scan metrics " + mScheduler.getMetrics());
             }
-        }
+        });
+        mThread.quitSafely();
     }
 
-    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    public ScanScheduler getScheduler() {
+        return mScheduler;
+    }
 
-    private static String b2x(byte[] bytes, int start, int len) {
-        char[] chars = new char[len * 2];
-        for (int i = 0; i < len; i++) {
-            int v = bytes[start + i] & 0xFF;
-            chars[i * 2] = HEX[v >>> 4];
-            chars[i * 2 + 1] = HEX[v & 0x0F];
+    public void setFilterEnabled(boolean enabled) {
+        if (mFilterEnabled != enabled) {
+            mFilterEnabled = enabled;
+            mHandler.post(this::updateScanner);
         }
-        return new String(chars);
     }
 
-    private class BleScanResult {
-        private final BluetoothDevice mDevice;
-        private final List<Integer> mRssiList = new ArrayList<>();
-        private final byte[] mScanRecord;
-        private final long mTimestamp;
-
-        public BleScanResult(BluetoothDevice device, int rssi, byte[] scanRecord, long timestamp) {
-            this.mDevice = device;
-            this.mRssiList.add(rssi);
-            this.mScanRecord = scanRecord;
-            this.mTimestamp = timestamp;
+    public void setRssiEstimator(RssiEstimator.Type type, int window) {
+        synchronized (mBeaconTable) {
+            mEstimator = RssiEstimator.create(type, window);
         }
+        Log.d("BleLocalizer", "rssiEstimator=" + type + " window=" + window);
+    }
 
-        public BluetoothDevice getDevice() {
-            return mDevice;
-        }
+    public void setRegions(List<BeaconRegion> regions) {
+        mRegions = regions != null ? Collections.unmodifiableList(new ArrayList<>(regions)) : Collections.<BeaconRegion>emptyList();
+        mHandler.post(this::updateScanner);
+    }
 
-        public double getRssi() {
-            double sum = 0;
-            for(int rssi : mRssiList) {
-                sum += rssi;
+    private void updateScanner() {
+        List<BeaconRegion> regions = mRegions;
+        synchronized (mBeaconTable) {
+            Arrays.fill(mMinMajor, Integer.MAX_VALUE);
+            Arrays.fill(mMaxMajor, -1);
+            for (BeaconRegion region : regions) {
+                int id = mParser.intern(region.uuid);
+                if (id != IBeaconParser.NO_UUID) {
+                    mMinMajor[id] = Math.min(mMinMajor[id], region.minMajor);
+                    mMaxMajor[id] = Math.max(mMaxMajor[id], region.maxMajor);
+                }
             }
-            return sum / mRssiList.size();
-        }
-
-        public void addRssi(int rssi) {
-            mRssiList.add(rssi);
+            mFiltering = mFilterEnabled && !regions.isEmpty();
         }
-
-        public byte[] getScanRecord() {
-            return mScanRecord;
-        }
-
-        public long getTimestamp() {
-            return mTimestamp;
+        Log.d("BleLocalizer", "filtering=" + mFiltering + " regions=" + regions);
+        if (mScanner != null) {
+            replaceScanner();
         }
+    }
 
-        public int getMajor() {
-            return ((mScanRecord[25] & 0xff) << 8) + (mScanRecord[26] & 0xff);
+    private void replaceScanner() {
+        BleScanner scanner = newScanner();
+        if (mScanning && mBluetoothAdapter.isEnabled()) {
+            try {
+                mScanner.stop();
+                scanner.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
+        mScanner = scanner;
+    }
 
-        public int getMinor() {
-            return ((mScanRecord[27] & 0xff) << 8) + (mScanRecord[28] & 0xff);
+    private BleScanner newScanner() {
+        List<ScanFilter> filters = new ArrayList<>();
+        ScanScheduler.Policy policy = mScheduler.getPolicy();
+        ScanSettings.Builder settings = new ScanSettings.Builder().setScanMode(policy.scanMode);
+        boolean batching = false;
+        if (mFiltering) {
+            for (BeaconRegion region : mRegions) {
+                filters.add(region.toScanFilter());
+            }
+            // controller batching only with continuous scanning, see mScanCycle
+            if (policy.scanOff == 0 && mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+                settings.setReportDelay(REPORT_DELAY);
+                batching = true;
+            }
         }
+        return new BleScanner(filters, settings.build(), batching);
+    }
 
-        public String getUuid() {
-            return b2x(mScanRecord, 9, 4) + "-" + b2x(mScanRecord, 13, 2) + "-" + b2x(mScanRecord, 15, 2) + "-" + b2x(mScanRecord, 17, 2) + "-" + b2x(mScanRecord, 19, 6);
+    public BeaconFrame getData() {
+        synchronized (mBeaconTable) {
+            mFrame.clear();
+            for (int i = 0; i < mBeaconTable.size(); i++) {
+                int uuidId = mBeaconTable.getUuidId(i);
+                double rssi = mEstimator != null ? mEstimator.estimate(mBeaconTable.getKey(i)) : mBeaconTable.getRssi(i);
+                mFrame.add(uuidId, mParser.getUuid(uuidId), mBeaconTable.getMajor(i), mBeaconTable.getMinor(i), (float) rssi, mBeaconTable.getTimestamp(i));
+            }
+            mBeaconTable.clear();
+            if (mEstimator != null) {
+                mEstimator.evict(System.currentTimeMillis());
+            }
         }
+        return mFrame;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (o instanceof BleScanResult) {
-                return getDevice().equals(((BleScanResult) o).getDevice());
+    private void addScanResult(BluetoothDevice device, int rssi, byte[] scanRecord, long timestamp) {
+        synchronized (mBeaconTable) {
+            if (mParser.parse(scanRecord) && (!mFiltering || (mMinMajor[mParser.uuidId] <= mParser.major && mParser.major <= mMaxMajor[mParser.uuidId]))) {
+                long key = BeaconTable.key(mParser.uuidId, mParser.major, mParser.minor);
+                mBeaconTable.add(key, rssi, timestamp);
+                if (mEstimator != null) {
+                    mEstimator.add(key, rssi, timestamp);
+                }
             }
-            return false;
         }
     }
 
     private class BleScanner extends ScanCallback {
         private final BluetoothLeScanner mBluetoothLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
-        private final ScanSettings mScanSettings = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
-        private final List<ScanFilter> mScanFilterList = new ArrayList<>();
+        private final ScanSettings mScanSettings;
+        private final List<ScanFilter> mScanFilterList;
+        private final boolean mBatching;
+
+        public BleScanner(List<ScanFilter> filters, ScanSettings settings, boolean batching) {
+            mScanFilterList = filters;
+            mScanSettings = settings;
+            mBatching = batching;
+        }
 
-        public BleScanner() {
-       //     mScanFilterList.add(new ScanFilter.Builder().setManufacturerData(0x4c, new byte[]{0x02, 0x15}).build());
+        public boolean isBatching() {
+            return mBatching;
         }
 
         public void start() {
@@ -264,6 +348,10 @@ public class BleLocalizer {
         }
 
         public void stop() {
+            if (mBatching) {
+                // deliver what the controller has batched before the callback is unregistered
+                mBluetoothLeScanner.flushPendingScanResults(this);
+            }
             mBluetoothLeScanner.stopScan(this);
         }
 
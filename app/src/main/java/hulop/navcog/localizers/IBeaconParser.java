@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import android.util.Log;
+
+/*
+ * Decodes the iBeacon payload of a scan record into primitive fields.
+ * The 16-byte proximity UUID is interned to a small integer id; its string form is built once per UUID.
+ */
+public class IBeaconParser {
+    public static final int NO_UUID = -1;
+    static final int MAX_UUIDS = 64;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final long[] mMsb = new long[MAX_UUIDS];
+    private final long[] mLsb = new long[MAX_UUIDS];
+    private final String[] mNames = new String[MAX_UUIDS];
+    private int mUuidCount;
+    private int mLastHit = NO_UUID;
+
+    public int uuidId;
+    public int major;
+    public int minor;
+    public int txPower;
+
+    public boolean parse(byte[] scanRecord) {
+        boolean isBeacon = (scanRecord.length > 30) && (scanRecord[5] == (byte) 0x4c) && (scanRecord[6] == (byte) 0x00) && (scanRecord[7] == (byte) 0x02) && (scanRecord[8] == (byte) 0x15);
+        if (!isBeacon) {
+            return false;
+        }
+        uuidId = intern(readLong(scanRecord, 9), readLong(scanRecord, 17));
+        major = ((scanRecord[25] & 0xff) << 8) + (scanRecord[26] & 0xff);
+        minor = ((scanRecord[27] & 0xff) << 8) + (scanRecord[28] & 0xff);
+        txPower = scanRecord[29];
+        return uuidId != NO_UUID;
+    }
+
+    public int intern(long msb, long lsb) {
+        if (mLastHit != NO_UUID && mMsb[mLastHit] == msb && mLsb[mLastHit] == lsb) {
+            return mLastHit;
+        }
+        for (int i = 0; i < mUuidCount; i++) {
+            if (mMsb[i] == msb && mLsb[i] == lsb) {
+                return mLastHit = i;
+            }
+        }
+        if (mUuidCount == MAX_UUIDS) {
+            Log.w("IBeaconParser", "too many UUIDs, ignored");
+            return NO_UUID;
+        }
+        mMsb[mUuidCount] = msb;
+        mLsb[mUuidCount] = lsb;
+        return mLastHit = mUuidCount++;
+    }
+
+    public int intern(String uuid) {
+        String hex = uuid.replace("-", "");
+        if (hex.length() != 32) {
+            return NO_UUID;
+        }
+        return intern(Long.parseUnsignedLong(hex.substring(0, 16), 16), Long.parseUnsignedLong(hex.substring(16), 16));
+    }
+
+    public String getUuid(int id) {
+        String name = mNames[id];
+        if (name == null) {
+            char[] chars = new char[36];
+            int pos = 0;
+            for (int i = 0; i < 16; i++) {
+                if (i == 4 || i == 6 || i == 8 || i == 10) {
+                    chars[pos++] = '-';
+                }
+                int v = (int) ((i < 8 ? mMsb[id] >>> (56 - i * 8) : mLsb[id] >>> (120 - i * 8)) & 0xff);
+                chars[pos++] = HEX[v >>> 4];
+                chars[pos++] = HEX[v & 0x0F];
+            }
+            mNames[id] = name = new String(chars).intern();
+        }
+        return name;
+    }
+
+    public long getUuidMsb(int id) {
+        return mMsb[id];
+    }
+
+    public long getUuidLsb(int id) {
+        return mLsb[id];
+    }
+
+    public int getUuidCount() {
+        return mUuidCount;
+    }
+
+    private static long readLong(byte[] bytes, int start) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[start + i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import java.util.Arrays;
+
+/*
+ * Open-addressing map from a non-negative long key to an int value.
+ * clear() only bumps a generation stamp, so a window can be reset without touching the table.
+ */
+class LongIntMap {
+    public static final int NONE = -1;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int[] mStamps;
+    private int mStamp = 1;
+    private int mMask;
+    private int mSize;
+
+    public LongIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int get(long key) {
+        for (int i = hash(key) & mMask; ; i = (i + 1) & mMask) {
+            if (mStamps[i] != mStamp) {
+                return NONE;
+            }
+            if (mKeys[i] == key) {
+                return mValues[i];
+            }
+        }
+    }
+
+    public void put(long key, int value) {
+        if ((mSize + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length * 2);
+        }
+        for (int i = hash(key) & mMask; ; i = (i + 1) & mMask) {
+            if (mStamps[i] != mStamp) {
+                mStamps[i] = mStamp;
+                mKeys[i] = key;
+                mValues[i] = value;
+                mSize++;
+                return;
+            }
+            if (mKeys[i] == key) {
+                mValues[i] = value;
+                return;
+            }
+        }
+    }
+
+    public void clear() {
+        mSize = 0;
+        if (++mStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mStamps, 0);
+            mStamp = 1;
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mStamps = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        int[] stamps = mStamps;
+        int stamp = mStamp;
+        allocate(capacity);
+        mStamp = 1;
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (stamps[i] == stamp) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
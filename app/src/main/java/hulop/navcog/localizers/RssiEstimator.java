@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import java.util.Arrays;
+
+/*
+ * Streaming per-beacon RSSI statistics kept across scan windows.
+ * State for each beacon lives in primitive arrays indexed by a slot; a beacon that has not been
+ * seen for RESET_INTERVAL starts over, and evict() frees its slot so the tables stay bounded
+ * by the beacons around the user rather than every beacon passed on the way.
+ */
+public abstract class RssiEstimator {
+    private static final long RESET_INTERVAL = 5 * 1000;
+    private static final int INITIAL_SLOTS = 64;
+
+    public enum Type {
+        WINDOW_MEAN, SLIDING_MEAN, MEDIAN, TRIMMED_MEAN, KALMAN;
+
+        public static Type fromString(String name) {
+            for (Type type : values()) {
+                if (type.name().equalsIgnoreCase(name)) {
+                    return type;
+                }
+            }
+            return WINDOW_MEAN;
+        }
+    }
+
+    public static RssiEstimator create(Type type, int window) {
+        window = Math.max(window, 1);
+        switch (type) {
+            case SLIDING_MEAN:
+                return new SlidingMean(window);
+            case MEDIAN:
+                return new Median(window);
+            case TRIMMED_MEAN:
+                return new TrimmedMean(window);
+            case KALMAN:
+                return new Kalman();
+            default:
+                return null;
+        }
+    }
+
+    private final LongIntMap mIndex = new LongIntMap(INITIAL_SLOTS);
+    private long[] mKeys = new long[INITIAL_SLOTS];
+    private long[] mLastSeen = new long[INITIAL_SLOTS];
+    private int mSize;
+    protected int mCapacity = INITIAL_SLOTS;
+
+    public void add(long key, int rssi, long timestamp) {
+        int slot = mIndex.get(key);
+        if (slot == LongIntMap.NONE) {
+            if (mSize == mCapacity) {
+                mCapacity *= 2;
+                mKeys = Arrays.copyOf(mKeys, mCapacity);
+                mLastSeen = Arrays.copyOf(mLastSeen, mCapacity);
+                grow(mCapacity);
+            }
+            mIndex.put(key, slot = mSize++);
+            mKeys[slot] = key;
+            reset(slot);
+        } else if (timestamp - mLastSeen[slot] > RESET_INTERVAL) {
+            reset(slot);
+        }
+        mLastSeen[slot] = timestamp;
+        add(slot, rssi);
+    }
+
+    public double estimate(long key) {
+        int slot = mIndex.get(key);
+        return slot == LongIntMap.NONE ? Double.NaN : estimate(slot);
+    }
+
+    public void clear() {
+        mIndex.clear();
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /*
+     * Frees the slots of beacons not seen for RESET_INTERVAL before now; the last slot moves into each freed one.
+     */
+    public void evict(long now) {
+        int size = mSize;
+        for (int slot = size - 1; slot >= 0; slot--) {
+            if (now - mLastSeen[slot] > RESET_INTERVAL) {
+                int last = --mSize;
+                if (slot != last) {
+                    mKeys[slot] = mKeys[last];
+                    mLastSeen[slot] = mLastSeen[last];
+                    move(last, slot);
+                }
+            }
+        }
+        if (mSize != size) {
+            mIndex.clear();
+            for (int slot = 0; slot < mSize; slot++) {
+                mIndex.put(mKeys[slot], slot);
+            }
+        }
+    }
+
+    protected abstract void add(int slot, int rssi);
+
+    protected abstract double estimate(int slot);
+
+    protected abstract void reset(int slot);
+
+    protected abstract void grow(int capacity);
+
+    protected abstract void move(int from, int to);
+
+    /*
+     * Fixed-size ring of the latest samples per slot.
+     */
+    private static abstract class Windowed extends RssiEstimator {
+        protected final int mWindow;
+        protected int[] mSamples;
+        protected int[] mPos = new int[mCapacity], mCount = new int[mCapacity];
+
+        Windowed(int window) {
+            mWindow = window;
+            mSamples = new int[mCapacity * window];
+        }
+
+        @Override
+        protected void add(int slot, int rssi) {
+            int base = slot * mWindow;
+            if (mCount[slot] == mWindow) {
+                removed(slot, base + mPos[slot]);
+            } else {
+                mCount[slot]++;
+            }
+            int index = base + mPos[slot];
+            mSamples[index] = rssi;
+            added(slot, index);
+            mPos[slot] = (mPos[slot] + 1) % mWindow;
+        }
+
+        @Override
+        protected void reset(int slot) {
+            mPos[slot] = mCount[slot] = 0;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            mSamples = Arrays.copyOf(mSamples, capacity * mWindow);
+            mPos = Arrays.copyOf(mPos, capacity);
+            mCount = Arrays.copyOf(mCount, capacity);
+        }
+
+        @Override
+        protected void move(int from, int to) {
+            System.arraycopy(mSamples, from * mWindow, mSamples, to * mWindow, mWindow);
+            mPos[to] = mPos[from];
+            mCount[to] = mCount[from];
+        }
+
+        protected void removed(int slot, int index) {
+        }
+
+        protected void added(int slot, int index) {
+        }
+    }
+
+    private static class SlidingMean extends Windowed {
+        private long[] mSum = new long[mCapacity];
+
+        SlidingMean(int window) {
+            super(window);
+        }
+
+        @Override
+        protected void removed(int slot, int index) {
+            mSum[slot] -= mSamples[index];
+        }
+
+        @Override
+        protected void added(int slot, int index) {
+            mSum[slot] += mSamples[index];
+        }
+
+        @Override
+        protected double estimate(int slot) {
+            return (double) mSum[slot] / mCount[slot];
+        }
+
+        @Override
+        protected void reset(int slot) {
+            super.reset(slot);
+            mSum[slot] = 0;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            super.grow(capacity);
+            mSum = Arrays.copyOf(mSum, capacity);
+        }
+
+        @Override
+        protected void move(int from, int to) {
+            super.move(from, to);
+            mSum[to] = mSum[from];
+        }
+    }
+
+    private static class TrimmedMean extends Windowed {
+        private static final double TRIM = 0.2;
+        private final int[] mSorted;
+
+        TrimmedMean(int window) {
+            super(window);
+            mSorted = new int[window];
+        }
+
+        @Override
+        protected double estimate(int slot) {
+            int count = mCount[slot];
+            System.arraycopy(mSamples, slot * mWindow, mSorted, 0, count);
+            Arrays.sort(mSorted, 0, count);
+            int trim = (int) (count * TRIM);
+            long sum = 0;
+            for (int i = trim; i < count - trim; i++) {
+                sum += mSorted[i];
+            }
+            return (double) sum / (count - trim * 2);
+        }
+    }
+
+    /*
+     * Sliding median with a max-heap for the lower half and a min-heap for the upper half.
+     * Heaps hold sample indices; mWhere maps a sample index back to its heap position
+     * (positive for the lower heap, negative for the upper heap) so expired samples can be removed.
+     */
+    private static class Median extends Windowed {
+        private int[] mLow, mHigh, mWhere;
+        private int[] mLowSize = new int[mCapacity], mHighSize = new int[mCapacity];
+
+        Median(int window) {
+            super(window);
+            mLow = new int[mCapacity * window];
+            mHigh = new int[mCapacity * window];
+            mWhere = new int[mCapacity * window];
+        }
+
+        @Override
+        protected void removed(int slot, int index) {
+            int base = slot * mWindow;
+            int where = mWhere[index];
+            if (where > 0) {
+                int pos = where - 1;
+                int last = mLow[base + --mLowSize[slot]];
+                if (pos < mLowSize[slot]) {
+                    place(mLow, base, pos, last, true);
+                    siftDown(mLow, base, mLowSize[slot], pos, true);
+                    siftUp(mLow, base, pos, true);
+                }
+            } else {
+                int pos = -where - 1;
+                int last = mHigh[base + --mHighSize[slot]];
+                if (pos < mHighSize[slot]) {
+                    place(mHigh, base, pos, last, false);
+                    siftDown(mHigh, base, mHighSize[slot], pos, false);
+                    siftUp(mHigh, base, pos, false);
+                }
+            }
+            balance(slot, base);
+        }
+
+        @Override
+        protected void added(int slot, int index) {
+            int base = slot * mWindow;
+            if (mLowSize[slot] == 0 || mSamples[index] <= mSamples[mLow[base]]) {
+                int pos = mLowSize[slot]++;
+                place(mLow, base, pos, index, true);
+                siftUp(mLow, base, pos, true);
+            } else {
+                int pos = mHighSize[slot]++;
+                place(mHigh, base, pos, index, false);
+                siftUp(mHigh, base, pos, false);
+            }
+            balance(slot, base);
+        }
+
+        private void balance(int slot, int base) {
+            if (mLowSize[slot] > mHighSize[slot] + 1) {
+                int top = pop(mLow, base, mLowSize, slot, true);
+                int pos = mHighSize[slot]++;
+                place(mHigh, base, pos, top, false);
+                siftUp(mHigh, base, pos, false);
+            } else if (mHighSize[slot] > mLowSize[slot]) {
+                int top = pop(mHigh, base, mHighSize, slot, false);
+                int pos = mLowSize[slot]++;
+                place(mLow, base, pos, top, true);
+                siftUp(mLow, base, pos, true);
+            }
+        }
+
+        private int pop(int[] heap, int base, int[] sizes, int slot, boolean low) {
+            int top = heap[base];
+            int last = heap[base + --sizes[slot]];
+            if (sizes[slot] > 0) {
+                place(heap, base, 0, last, low);
+                siftDown(heap, base, sizes[slot], 0, low);
+            }
+            return top;
+        }
+
+        private void place(int[] heap, int base, int pos, int index, boolean low) {
+            heap[base + pos] = index;
+            mWhere[index] = low ? pos + 1 : -(pos + 1);
+        }
+
+        private boolean above(int a, int b, boolean low) {
+            return low ? mSamples[a] > mSamples[b] : mSamples[a] < mSamples[b];
+        }
+
+        private void siftUp(int[] heap, int base, int pos, boolean low) {
+            while (pos > 0) {
+                int parent = (pos - 1) / 2;
+                if (!above(heap[base + pos], heap[base + parent], low)) {
+                    break;
+                }
+                int tmp = heap[base + parent];
+                place(heap, base, parent, heap[base + pos], low);
+                place(heap, base, pos, tmp, low);
+                pos = parent;
+            }
+        }
+
+        private void siftDown(int[] heap, int base, int size, int pos, boolean low) {
+            while (true) {
+                int child = pos * 2 + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && above(heap[base + child + 1], heap[base + child], low)) {
+                    child++;
+                }
+                if (!above(heap[base + child], heap[base + pos], low)) {
+                    break;
+                }
+                int tmp = heap[base + pos];
+                place(heap, base, pos, heap[base + child], low);
+                place(heap, base, child, tmp, low);
+                pos = child;
+            }
+        }
+
+        @Override
+        protected double estimate(int slot) {
+            int base = slot * mWindow;
+            if (mLowSize[slot] > mHighSize[slot]) {
+                return mSamples[mLow[base]];
+            }
+            return (mSamples[mLow[base]] + mSamples[mHigh[base]]) / 2.0;
+        }
+
+        @Override
+        protected void reset(int slot) {
+            super.reset(slot);
+            mLowSize[slot] = mHighSize[slot] = 0;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            super.grow(capacity);
+            mLow = Arrays.copyOf(mLow, capacity * mWindow);
+            mHigh = Arrays.copyOf(mHigh, capacity * mWindow);
+            mWhere = Arrays.copyOf(mWhere, capacity * mWindow);
+            mLowSize = Arrays.copyOf(mLowSize, capacity);
+            mHighSize = Arrays.copyOf(mHighSize, capacity);
+        }
+
+        // heap positions stay the same, sample indices shift with the slot
+        @Override
+        protected void move(int from, int to) {
+            super.move(from, to);
+            int fromBase = from * mWindow, toBase = to * mWindow;
+            System.arraycopy(mWhere, fromBase, mWhere, toBase, mWindow);
+            for (int i = 0; i < mLowSize[from]; i++) {
+                mLow[toBase + i] = mLow[fromBase + i] - fromBase + toBase;
+            }
+            for (int i = 0; i < mHighSize[from]; i++) {
+                mHigh[toBase + i] = mHigh[fromBase + i] - fromBase + toBase;
+            }
+            mLowSize[to] = mLowSize[from];
+            mHighSize[to] = mHighSize[from];
+        }
+    }
+
+    /*
+     * Constant-level 1-D Kalman filter per beacon.
+     */
+    private static class Kalman extends RssiEstimator {
+        private static final double PROCESS_NOISE = 0.5, MEASUREMENT_NOISE = 16;
+        private double[] mX = new double[mCapacity], mP = new double[mCapacity];
+
+        @Override
+        protected void add(int slot, int rssi) {
+            if (mP[slot] == 0) {
+                mX[slot] = rssi;
+                mP[slot] = MEASUREMENT_NOISE;
+                return;
+            }
+            double p = mP[slot] + PROCESS_NOISE;
+            double k = p / (p + MEASUREMENT_NOISE);
+            mX[slot] += k * (rssi - mX[slot]);
+            mP[slot] = (1 - k) * p;
+        }
+
+        @Override
+        protected double estimate(int slot) {
+            return mX[slot];
+        }
+
+        @Override
+        protected void reset(int slot) {
+            mX[slot] = mP[slot] = 0;
+        }
+
+        @Override
+        protected void grow(int capacity) {
+            mX = Arrays.copyOf(mX, capacity);
+            mP = Arrays.copyOf(mP, capacity);
+        }
+
+        @Override
+        protected void move(int from, int to) {
+            mX[to] = mX[from];
+            mP[to] = mP[from];
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import hulop.jni.Localizer;
+
+/*
+ * Chooses the BLE scan mode and on/off window from motion, localization status and battery level,
+ * and keeps track of how long the radio has been scanning.
+ */
+public class ScanScheduler {
+    private static final int LOW_BATTERY = 20;
+
+    public enum Policy {
+        FAST(ScanSettings.SCAN_MODE_LOW_LATENCY, 6 * 1000, 0, 1.0),
+        BALANCED(ScanSettings.SCAN_MODE_BALANCED, 6 * 1000, 0, 0.25),
+        // SCAN_MODE_LOW_POWER already duty-cycles in the controller; with an off window on top of it
+        // the remaining listen windows catch almost no advertisements, so save power in software only
+        LOW_POWER(ScanSettings.SCAN_MODE_BALANCED, 4 * 1000, 2 * 1000, 0.25);
+
+        // radioDuty is the approximate fraction of time the controller listens while scanning in scanMode;
+        // the off window is accounted for separately since the radio time only accrues while scanning
+        public final int scanMode;
+        public final long scanOn, scanOff;
+        public final double radioDuty;
+
+        Policy(int scanMode, long scanOn, long scanOff, double radioDuty) {
+            this.scanMode = scanMode;
+            this.scanOn = scanOn;
+            this.scanOff = scanOff;
+            this.radioDuty = radioDuty;
+        }
+    }
+
+    public interface StateProvider {
+        boolean isStationary();
+
+        Localizer.LocationStatus getLocationStatus();
+    }
+
+    private final BatteryManager mBatteryManager;
+    private StateProvider mProvider;
+    private boolean mAdaptive = true;
+    private Policy mPolicy = Policy.FAST;
+    private long mStartTime = SystemClock.elapsedRealtime();
+    private long mScanStart;
+    private long mScanOnTime, mRadioOnTime;
+    private int mPolicyChanges;
+
+    public ScanScheduler(Context context) {
+        mBatteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+    }
+
+    public void setStateProvider(StateProvider provider) {
+        mProvider = provider;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        mAdaptive = adaptive;
+    }
+
+    public synchronized Policy getPolicy() {
+        return mPolicy;
+    }
+
+    /*
+     * Called at the start of each scan window; returns true if the policy changed.
+     */
+    public synchronized boolean update() {
+        Policy policy = decide();
+        if (policy != mPolicy) {
+            mPolicy = policy;
+            mPolicyChanges++;
+            return true;
+        }
+        return false;
+    }
+
+    private Policy decide() {
+        if (!mAdaptive || mProvider == null) {
+            return Policy.FAST;
+        }
+        boolean lowBattery = isLowBattery();
+        boolean stable = mProvider.getLocationStatus() == Localizer.LocationStatus.STABLE;
+        if (!stable || !mProvider.isStationary()) {
+            return lowBattery && stable ? Policy.BALANCED : Policy.FAST;
+        }
+        return lowBattery ? Policy.LOW_POWER : Policy.BALANCED;
+    }
+
+    private boolean isLowBattery() {
+        if (mBatteryManager == null || mBatteryManager.isCharging()) {
+            return false;
+        }
+        int level = mBatteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY);
+        return level > 0 && level <= LOW_BATTERY;
+    }
+
+    public synchronized void onScanStarted() {
+        mScanStart = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized void onScanStopped() {
+        if (mScanStart > 0) {
+            long elapsed = SystemClock.elapsedRealtime() - mScanStart;
+            mScanOnTime += elapsed;
+            mRadioOnTime += (long) (elapsed * mPolicy.radioDuty);
+            mScanStart = 0;
+        }
+    }
+
+    public synchronized JSONObject getMetrics() {
+        long now = SystemClock.elapsedRealtime();
+        long scanOn = mScanOnTime, radioOn = mRadioOnTime;
+        if (mScanStart > 0) {
+            scanOn += now - mScanStart;
+            radioOn += (long) ((now - mScanStart) * mPolicy.radioDuty);
+        }
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("policy", mPolicy.name());
+            metrics.put("policyChanges", mPolicyChanges);
+            metrics.put("elapsed", now - mStartTime);
+            metrics.put("scanOnTime", scanOn);
+            metrics.put("radioOnTime", radioOn);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hulop.navcog.localizers.BeaconFrame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IngestSchedulerTest {
+    private final RecordingSink mSink = new RecordingSink();
+    private IngestScheduler mScheduler;
+    private long mBase;
+
+    @Before
+    public void setUp() {
+        mScheduler = new IngestScheduler(mSink);
+        // input well behind the watermark is released as soon as the worker gets to it
+        mBase = System.currentTimeMillis() - 60 * 1000;
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.quit();
+    }
+
+    @Test
+    public void postAfterQuitIsRejected() {
+        mScheduler.quit();
+        assertFalse(mScheduler.post(() -> {
+        }));
+    }
+
+    @Test
+    public void tasksPostedBeforeQuitStillRun() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        assertTrue(mScheduler.post(() -> {
+            sleep(100);
+            ran.countDown();
+        }));
+        mScheduler.quit();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void beaconBacklogIsNeverDropped() throws InterruptedException {
+        CountDownLatch release = blockWorker();
+        for (int i = 0; i < 10; i++) {
+            mScheduler.putBeacons(mBase + i * 1000, frame(i));
+        }
+        release.countDown();
+        List<String> events = mSink.await(10);
+        sleep(100);
+        assertEquals(10, mSink.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("B" + (mBase + i * 1000) + ":" + i, events.get(i));
+        }
+    }
+
+    @Test
+    public void streamsAreReleasedInTimestampOrder() throws InterruptedException {
+        CountDownLatch release = blockWorker();
+        long[] timestamps = {mBase, mBase + 20, mBase + 40, mBase + 60, mBase + 80};
+        mScheduler.putAltimeter(mBase + 50, 0, 1013);
+        mScheduler.putAccelerations(timestamps, new float[timestamps.length * 3], timestamps.length);
+        mScheduler.putAltimeter(mBase + 70, 0, 1013);
+        mScheduler.putBeacons(mBase + 30, frame(1));
+        release.countDown();
+        List<String> events = mSink.await(8);
+        assertEquals(Arrays.asList(
+                "A" + mBase, "A" + (mBase + 20), "B" + (mBase + 30) + ":1", "A" + (mBase + 40),
+                "P" + (mBase + 50), "A" + (mBase + 60), "P" + (mBase + 70), "A" + (mBase + 80)), events);
+    }
+
+    @Test
+    public void inputBehindReleasedIsDropped() throws InterruptedException {
+        mScheduler.putBeacons(mBase + 100, frame(1));
+        mSink.await(1);
+        mScheduler.putAltimeter(mBase + 50, 0, 1013);
+        long[] timestamps = {mBase + 60};
+        mScheduler.putAccelerations(timestamps, new float[3], 1);
+        mScheduler.putAltimeter(mBase + 150, 0, 1013);
+        List<String> events = mSink.await(2);
+        sleep(100);
+        assertEquals(Arrays.asList("B" + (mBase + 100) + ":1", "P" + (mBase + 150)), events);
+        assertEquals(2, mSink.size());
+    }
+
+    @Test
+    public void batchedSensorInputBehindReleasedIsMerged() throws InterruptedException {
+        mScheduler.setSensorBatching(true);
+        mScheduler.putBeacons(mBase + 100, frame(1));
+        mSink.await(1);
+        CountDownLatch release = blockWorker();
+        long[] timestamps = {mBase + 40, mBase + 60, mBase + 120};
+        mScheduler.putAccelerations(timestamps, new float[9], 3);
+        mScheduler.putAltimeter(mBase + 50, 0, 1013);
+        // behind the last record of its own stream, so still late
+        mScheduler.putAltimeter(mBase + 30, 0, 1013);
+        release.countDown();
+        List<String> events = mSink.await(5);
+        sleep(100);
+        assertEquals(Arrays.asList("B" + (mBase + 100) + ":1",
+                "A" + (mBase + 40), "P" + (mBase + 50), "A" + (mBase + 60), "A" + (mBase + 120)), events);
+        assertEquals(5, mSink.size());
+    }
+
+    @Test
+    public void inputIsHeldForTheReorderWindow() throws InterruptedException {
+        mScheduler.setReorderWindow(500);
+        mScheduler.putAltimeter(System.currentTimeMillis(), 0, 1013);
+        sleep(200);
+        assertEquals(0, mSink.size());
+        mSink.await(1);
+    }
+
+    @Test
+    public void equalTimestampsGoToTheHigherPriority() throws InterruptedException {
+        CountDownLatch release = blockWorker();
+        mScheduler.putBeacons(mBase, frame(1));
+        mScheduler.putAltimeter(mBase, 0, 1013);
+        release.countDown();
+        assertEquals(Arrays.asList("P" + mBase, "B" + mBase + ":1"), mSink.await(2));
+
+        mScheduler.setBudget(IngestScheduler.Stream.BEACONS, 4, 10);
+        release = blockWorker();
+        mScheduler.putAltimeter(mBase + 10, 0, 1013);
+        mScheduler.putBeacons(mBase + 10, frame(2));
+        release.countDown();
+        assertEquals(Arrays.asList("B" + (mBase + 10) + ":2", "P" + (mBase + 10)), mSink.await(4).subList(2, 4));
+    }
+
+    @Test
+    public void budgetCapsTheBacklog() throws InterruptedException {
+        mScheduler.setBudget(IngestScheduler.Stream.ALTIMETER, 2, 4);
+        CountDownLatch release = blockWorker();
+        for (int i = 0; i < 5; i++) {
+            mScheduler.putAltimeter(mBase + i * 10, 0, 1013);
+        }
+        release.countDown();
+        List<String> events = mSink.await(2);
+        sleep(100);
+        assertEquals(Arrays.asList("P" + (mBase + 30), "P" + (mBase + 40)), events);
+        assertEquals(2, mSink.size());
+    }
+
+    // occupies the worker with a task until the returned latch is released
+    CountDownLatch blockWorker() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mScheduler.post(() -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    static BeaconFrame frame(int minor) {
+        BeaconFrame frame = new BeaconFrame();
+        frame.add(0, "00000000-0000-0000-0000-000000000000", 1, minor, -70, 0);
+        return frame;
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Records every delivery as a short string: stream letter, timestamp and, for beacons, the first minor.
+     */
+    static class RecordingSink implements IngestScheduler.Sink {
+        private final List<String> mEvents = new ArrayList<>();
+
+        synchronized int size() {
+            return mEvents.size();
+        }
+
+        synchronized List<String> await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mEvents.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue("received " + mEvents, mEvents.size() >= count);
+            return new ArrayList<>(mEvents);
+        }
+
+        private synchronized void add(String event) {
+            mEvents.add(event);
+            notifyAll();
+        }
+
+        @Override
+        public void onBeacons(long timestamp, BeaconFrame frame) {
+            add("B" + timestamp + ":" + frame.minor[0]);
+        }
+
+        @Override
+        public void onAccelerations(long[] timestamps, float[] xyz, int count) {
+            for (int i = 0; i < count; i++) {
+                add("A" + timestamps[i]);
+            }
+        }
+
+        @Override
+        public void onAttitude(long timestamp, double x, double y, double z) {
+            add("T" + timestamp);
+        }
+
+        @Override
+        public void onAltimeter(long timestamp, double relativeAltitude, double pressure) {
+            add("P" + timestamp);
+        }
+
+        @Override
+        public void onHeading(long timestamp, double magneticHeading, double trueHeading, double headingAccuracy, double x, double y, double z) {
+            add("H" + timestamp);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.helpers;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int v = 0; v < 16; v++) {
+            assertEquals(v, LatencyHistogram.bucket(v));
+            assertEquals(v, LatencyHistogram.upperBound(v));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        int last = LatencyHistogram.bucket(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(last));
+        for (int b = 0; b < last; b++) {
+            long upper = LatencyHistogram.upperBound(b);
+            assertEquals(b, LatencyHistogram.bucket(upper));
+            assertEquals(b + 1, LatencyHistogram.bucket(upper + 1));
+        }
+    }
+
+    @Test
+    public void upperBoundIsWithinAnEighth() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long v = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucket(v));
+            assertTrue(v + " -> " + upper, upper >= v);
+            assertTrue(v + " -> " + upper, upper - v <= v / 8);
+        }
+    }
+
+    @Test
+    public void powersOfTwoStartABucket() {
+        for (int e = 3; e < 63; e++) {
+            long v = 1L << e;
+            assertEquals(v - 1, LatencyHistogram.upperBound(LatencyHistogram.bucket(v) - 1));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ModelPartitionsTest {
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("partitions").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void noManifestMeansNoPartitions() throws Exception {
+        assertNull(ModelPartitions.load(mDir));
+    }
+
+    @Test
+    public void findPrefersThePartitionCoveringTheFloor() throws Exception {
+        ModelPartitions partitions = load("{\"default\": \"east\", \"partitions\": ["
+                + "{\"id\": \"west\", \"file\": \"west.json\", \"buildings\": [\"West Hall\"]},"
+                + "{\"id\": \"east-low\", \"file\": \"east-low.json\", \"buildings\": [\"East Hall\"], \"floors\": [-1, 2]},"
+                + "{\"id\": \"east\", \"file\": \"east.json\", \"buildings\": [\"East Hall\", \"Annex\"], \"floors\": [3, 8]}]}");
+        assertEquals(file("east-low.json"), partitions.find("East Hall", -1));
+        assertEquals(file("east-low.json"), partitions.find("East Hall", 2));
+        assertEquals(file("east.json"), partitions.find("East Hall", 3));
+        assertEquals(file("east.json"), partitions.find("Annex", 5));
+        assertEquals(file("west.json"), partitions.find("West Hall", 10));
+    }
+
+    @Test
+    public void findFallsBackToAnyPartitionOfTheBuilding() throws Exception {
+        ModelPartitions partitions = load("{\"partitions\": ["
+                + "{\"file\": \"a.json\", \"buildings\": [\"A\"], \"floors\": [0, 2]},"
+                + "{\"file\": \"b.json\", \"buildings\": [\"A\"], \"floors\": [3, 5]}]}");
+        // unknown floor and a floor no partition covers both take the first partition listing the building
+        assertEquals(file("a.json"), partitions.find("A", Double.NaN));
+        assertEquals(file("a.json"), partitions.find("A", 9));
+        assertEquals(file("b.json"), partitions.find("A", 4));
+    }
+
+    @Test
+    public void unknownBuildingsAndTheDefault() throws Exception {
+        ModelPartitions partitions = load("{\"default\": \"b\", \"partitions\": ["
+                + "{\"id\": \"a\", \"file\": \"a.json\", \"buildings\": [\"A\"]},"
+                + "{\"id\": \"b\", \"file\": \"b.json\", \"buildings\": [\"B\"]}]}");
+        assertEquals(file("b.json"), partitions.find(null, Double.NaN));
+        assertNull(partitions.find("C", 1));
+        assertEquals(mDir, partitions.getDirectory());
+    }
+
+    @Test
+    public void withoutDefaultTheFirstPartitionIsUsed() throws Exception {
+        ModelPartitions partitions = load("{\"partitions\": ["
+                + "{\"file\": \"a.json\", \"buildings\": [\"A\"]},"
+                + "{\"file\": \"b.json\", \"buildings\": [\"B\"]}]}");
+        assertEquals(file("a.json"), partitions.find(null, 0));
+    }
+
+    @Test(expected = Exception.class)
+    public void emptyManifestIsRejected() throws Exception {
+        load("{\"partitions\": []}");
+    }
+
+    private ModelPartitions load(String manifest) throws Exception {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(mDir, ModelPartitions.MANIFEST)), StandardCharsets.UTF_8)) {
+            writer.write(manifest);
+        }
+        return ModelPartitions.load(mDir);
+    }
+
+    private File file(String name) {
+        return new File(mDir, name);
+    }
+}
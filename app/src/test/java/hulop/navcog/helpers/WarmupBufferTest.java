@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import hulop.navcog.localizers.BeaconFrame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WarmupBufferTest {
+    private final WarmupBuffer mBuffer = new WarmupBuffer();
+    private final IngestSchedulerTest.RecordingSink mSink = new IngestSchedulerTest.RecordingSink();
+
+    @Test
+    public void replayMergesStreamsInTimestampOrder() throws InterruptedException {
+        mBuffer.onAccelerations(new long[]{100, 120, 140, 160}, new float[12], 4);
+        mBuffer.onAltimeter(150, 0, 1013);
+        mBuffer.onBeacons(110, IngestSchedulerTest.frame(1));
+        mBuffer.onHeading(130, 0, 0, 0, 0, 0, 0);
+        mBuffer.onAttitude(105, 0, 0, 0);
+        mBuffer.onBeacons(170, IngestSchedulerTest.frame(2));
+        assertFalse(mBuffer.isEmpty());
+
+        assertEquals(9, mBuffer.replay(mSink));
+        assertEquals(Arrays.asList("A100", "T105", "B110:1", "A120", "H130", "A140", "P150", "A160", "B170:2"), mSink.await(9));
+        assertTrue(mBuffer.isEmpty());
+        assertEquals(0, mBuffer.replay(mSink));
+    }
+
+    @Test
+    public void accelerationsBetweenOtherRecordsAreReplayedAsOneBatch() {
+        final List<Integer> batches = new ArrayList<>();
+        mBuffer.onAccelerations(new long[]{100, 110, 120, 130}, new float[12], 4);
+        mBuffer.onAltimeter(125, 0, 1013);
+        mBuffer.replay(new IngestSchedulerTest.RecordingSink() {
+            @Override
+            public void onAccelerations(long[] timestamps, float[] xyz, int count) {
+                batches.add(count);
+            }
+        });
+        assertEquals(Arrays.asList(3, 1), batches);
+    }
+
+    @Test
+    public void recordsOlderThanMaxAgeAreExpired() throws InterruptedException {
+        mBuffer.setMaxAge(1000);
+        mBuffer.onAltimeter(0, 0, 1013);
+        mBuffer.onAltimeter(500, 0, 1013);
+        mBuffer.onAltimeter(1500, 0, 1013);
+        mBuffer.onBeacons(2000, IngestSchedulerTest.frame(1));
+        assertEquals(2, mBuffer.replay(mSink));
+        assertEquals(Arrays.asList("P1500", "B2000:1"), mSink.await(2));
+    }
+
+    @Test
+    public void eachStreamKeepsItsNewestRecords() throws InterruptedException {
+        for (int i = 0; i < 20; i++) {
+            mBuffer.onBeacons(i, IngestSchedulerTest.frame(i));
+        }
+        assertEquals(16, mBuffer.replay(mSink));
+        List<String> events = mSink.await(16);
+        assertEquals("B4:4", events.get(0));
+        assertEquals("B19:19", events.get(15));
+    }
+
+    @Test
+    public void beaconFramesAreCopied() throws InterruptedException {
+        BeaconFrame frame = IngestSchedulerTest.frame(1);
+        mBuffer.onBeacons(100, frame);
+        frame.minor[0] = 2;
+        mBuffer.replay(mSink);
+        assertEquals(Arrays.asList("B100:1"), mSink.await(1));
+    }
+
+    @Test
+    public void zeroMaxAgeDisablesCapture() {
+        mBuffer.setMaxAge(0);
+        mBuffer.onBeacons(100, IngestSchedulerTest.frame(1));
+        mBuffer.onAltimeter(100, 0, 1013);
+        assertTrue(mBuffer.isEmpty());
+    }
+}
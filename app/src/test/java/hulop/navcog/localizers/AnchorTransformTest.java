@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorTransformTest {
+
+    @Test
+    public void globalOrientationMatchesAtan2() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double rotate = (random.nextDouble() - 0.5) * 720;
+            double local = (random.nextDouble() - 0.5) * 4 * Math.PI;
+            AnchorTransform anchor = new AnchorTransform(35.0, 139.0, rotate);
+            double g = local - rotate / 180 * Math.PI;
+            double expected = -Math.atan2(Math.cos(g), Math.sin(g));
+            double actual = anchor.toGlobalOrientation(local);
+            assertTrue(actual >= -Math.PI && actual <= Math.PI);
+            // equal as angles, so -PI and PI both pass
+            assertEquals(Math.cos(expected), Math.cos(actual), 1e-9);
+            assertEquals(Math.sin(expected), Math.sin(actual), 1e-9);
+        }
+    }
+
+    @Test
+    public void jsonRoundTrip() throws Exception {
+        AnchorTransform anchor = new AnchorTransform(35.681236, 139.767125, -12.5);
+        JSONObject json = anchor.toJSON();
+        assertEquals(35.681236, json.getDouble("latitude"), 0);
+        assertEquals(139.767125, json.getDouble("longitude"), 0);
+        assertEquals(-12.5, json.getDouble("rotate"), 0);
+        AnchorTransform parsed = AnchorTransform.fromJSON(new JSONObject(json.toString()));
+        assertEquals(anchor, parsed);
+        assertEquals(anchor.hashCode(), parsed.hashCode());
+    }
+
+    @Test
+    public void equalsComparesAllFields() {
+        AnchorTransform anchor = new AnchorTransform(35, 139, 10);
+        assertEquals(anchor, new AnchorTransform(35, 139, 10));
+        assertNotEquals(anchor, new AnchorTransform(35.000001, 139, 10));
+        assertNotEquals(anchor, new AnchorTransform(35, 139.000001, 10));
+        assertNotEquals(anchor, new AnchorTransform(35, 139, 10.5));
+        assertNotEquals(anchor, null);
+    }
+
+    @Test
+    public void appendToWritesTheMapAnchor() {
+        StringBuilder sb = new StringBuilder();
+        new AnchorTransform(35.5, 139.25, 90).appendTo(sb);
+        assertEquals("\"anchor\":{\"lat\":35.5,\"lng\":139.25},\"rotate\":90.0", sb.toString());
+    }
+}
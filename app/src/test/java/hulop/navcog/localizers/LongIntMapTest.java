@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongIntMapTest {
+
+    @Test
+    public void getReturnsNoneForMissingKey() {
+        LongIntMap map = new LongIntMap(4);
+        assertEquals(LongIntMap.NONE, map.get(42));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void putOverwritesExistingKey() {
+        LongIntMap map = new LongIntMap(4);
+        map.put(7, 1);
+        map.put(7, 2);
+        assertEquals(2, map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        LongIntMap map = new LongIntMap(2);
+        for (int i = 0; i < 1000; i++) {
+            map.put(((long) i << 16) | i, i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map.get(((long) i << 16) | i));
+        }
+    }
+
+    @Test
+    public void clearForgetsEntriesWithoutLeakingOldValues() {
+        LongIntMap map = new LongIntMap(8);
+        for (int i = 0; i < 8; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(LongIntMap.NONE, map.get(i));
+        }
+        map.put(3, 30);
+        assertEquals(30, map.get(3));
+        assertEquals(LongIntMap.NONE, map.get(4));
+    }
+
+    @Test
+    public void growsAfterClear() {
+        LongIntMap map = new LongIntMap(2);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                map.put(round * 1000 + i, i);
+            }
+            assertEquals(100, map.size());
+            assertEquals(LongIntMap.NONE, map.get((round - 1) * 1000 + 1));
+            map.clear();
+        }
+    }
+
+    @Test
+    public void matchesHashMap() {
+        Random random = new Random(1);
+        LongIntMap map = new LongIntMap(16);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            long key = random.nextInt(500) * 0x10000L + random.nextInt(4);
+            if (random.nextInt(200) == 0) {
+                map.clear();
+                expected.clear();
+            }
+            map.put(key, i);
+            expected.put(key, i);
+            long probe = random.nextInt(500) * 0x10000L + random.nextInt(4);
+            Integer value = expected.get(probe);
+            assertEquals(value != null ? value : LongIntMap.NONE, map.get(probe));
+            assertEquals(expected.size(), map.size());
+        }
+    }
+}
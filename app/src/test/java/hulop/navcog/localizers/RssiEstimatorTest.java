@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2016, 2024  IBM Corporation, Carnegie Mellon University and others
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *******************************************************************************/
+
+package hulop.navcog.localizers;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RssiEstimatorTest {
+    private static final int WINDOW = 7;
+    private static final int BEACONS = 40;
+
+    @Test
+    public void windowMeanHasNoEstimator() {
+        assertNull(RssiEstimator.create(RssiEstimator.Type.WINDOW_MEAN, WINDOW));
+        assertEquals(RssiEstimator.Type.MEDIAN, RssiEstimator.Type.fromString("median"));
+        assertEquals(RssiEstimator.Type.WINDOW_MEAN, RssiEstimator.Type.fromString("unknown"));
+    }
+
+    @Test
+    public void unknownBeaconIsNaN() {
+        RssiEstimator estimator = RssiEstimator.create(RssiEstimator.Type.MEDIAN, WINDOW);
+        assertTrue(Double.isNaN(estimator.estimate(123L)));
+    }
+
+    @Test
+    public void medianMatchesSortedWindow() {
+        check(RssiEstimator.Type.MEDIAN);
+    }
+
+    @Test
+    public void slidingMeanMatchesWindowAverage() {
+        check(RssiEstimator.Type.SLIDING_MEAN);
+    }
+
+    @Test
+    public void trimmedMeanMatchesReference() {
+        check(RssiEstimator.Type.TRIMMED_MEAN);
+    }
+
+    @Test
+    public void kalmanStartsAtFirstSampleAndConverges() {
+        RssiEstimator estimator = RssiEstimator.create(RssiEstimator.Type.KALMAN, WINDOW);
+        estimator.add(1, -70, 0);
+        assertEquals(-70, estimator.estimate(1L), 1e-9);
+        for (int i = 1; i < 200; i++) {
+            estimator.add(1, -80, i * 100);
+        }
+        assertEquals(-80, estimator.estimate(1L), 0.5);
+    }
+
+    @Test
+    public void beaconStartsOverAfterResetInterval() {
+        RssiEstimator estimator = RssiEstimator.create(RssiEstimator.Type.SLIDING_MEAN, WINDOW);
+        estimator.add(1, -60, 0);
+        estimator.add(1, -60, 1000);
+        estimator.add(1, -90, 10 * 1000);
+        assertEquals(-90, estimator.estimate(1L), 1e-9);
+    }
+
+    @Test
+    public void evictFreesStaleSlots() {
+        for (RssiEstimator.Type type : new RssiEstimator.Type[]{RssiEstimator.Type.MEDIAN, RssiEstimator.Type.KALMAN}) {
+            RssiEstimator estimator = RssiEstimator.create(type, WINDOW);
+            for (int i = 0; i < 1000; i++) {
+                estimator.add(i, -70, i * 100);
+                estimator.evict(i * 100);
+            }
+            assertTrue(type + " size " + estimator.size(), estimator.size() <= 51);
+            assertTrue(Double.isNaN(estimator.estimate(0L)));
+            assertEquals(-70, estimator.estimate(999L), 1e-9);
+        }
+    }
+
+    /*
+     * Random samples over many beacons, with beacons going quiet and being evicted, against a brute-force reference.
+     */
+    private void check(RssiEstimator.Type type) {
+        Random random = new Random(type.ordinal());
+        RssiEstimator estimator = RssiEstimator.create(type, WINDOW);
+        Map<Long, ArrayDeque<Integer>> windows = new HashMap<>();
+        Map<Long, Long> lastSeen = new HashMap<>();
+        long now = 0;
+        for (int n = 0; n < 20000; n++) {
+            now += random.nextInt(20);
+            // only part of the venue is in range at a time
+            long key = BeaconTable.key(0, (int) (now / 3000) % 10, random.nextInt(BEACONS / 10) + 1);
+            int rssi = -100 + random.nextInt(60);
+            Long seen = lastSeen.get(key);
+            if (seen == null || now - seen > 5000) {
+                windows.put(key, new ArrayDeque<Integer>());
+            }
+            ArrayDeque<Integer> window = windows.get(key);
+            window.add(rssi);
+            if (window.size() > WINDOW) {
+                window.poll();
+            }
+            lastSeen.put(key, now);
+            estimator.add(key, rssi, now);
+            if (n % 50 == 0) {
+                estimator.evict(now);
+                for (Map.Entry<Long, Long> entry : new ArrayList<>(lastSeen.entrySet())) {
+                    if (now - entry.getValue() > 5000) {
+                        lastSeen.remove(entry.getKey());
+                        windows.remove(entry.getKey());
+                    }
+                }
+                assertEquals(lastSeen.size(), estimator.size());
+            }
+            for (Map.Entry<Long, ArrayDeque<Integer>> entry : windows.entrySet()) {
+                assertEquals(type + " at " + n, reference(type, entry.getValue()), estimator.estimate(entry.getKey()), 1e-9);
+            }
+        }
+    }
+
+    private static double reference(RssiEstimator.Type type, ArrayDeque<Integer> window) {
+        List<Integer> sorted = new ArrayList<>(window);
+        Collections.sort(sorted);
+        int count = sorted.size();
+        int from = 0, to = count;
+        switch (type) {
+            case MEDIAN:
+                return count % 2 == 1 ? sorted.get(count / 2) : (sorted.get(count / 2 - 1) + sorted.get(count / 2)) / 2.0;
+            case TRIMMED_MEAN:
+                from = (int) (count * 0.2);
+                to = count - from;
+                break;
+        }
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += sorted.get(i);
+        }
+        return (double) sum / (to - from);
+    }
+}